@@ -0,0 +1,942 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/** Stand-alone benchmarks of Gitlet's storage paths and commands.
+ *  Usage: java gitlet.Benchmark [KEY=VALUE ...] [NAME ...], where each
+ *  NAME is one of the benchmarks listed in BENCHMARKS (all of them by
+ *  default), and each KEY=VALUE sets one of the REPO settings shaping
+ *  the repository the command benchmarks run in.
+ *  @author Daniel Bostwick
+ */
+class Benchmark {
+
+    /** Names of the available benchmarks. */
+    static final String[] BENCHMARKS = {"sha1", "compression", "checkout",
+        "serialization", "split-point", "find", "prefix", "add",
+        "commands"};
+
+    /** Shape of the synthetic repository used by the command benchmarks:
+     *  the number of working files, the size of each in bytes, the
+     *  number of commits on master, and the number of side branches. */
+    static final LinkedHashMap<String, Integer> REPO = new LinkedHashMap<>();
+
+    static {
+        REPO.put("files", 1000);
+        REPO.put("size", 4096);
+        REPO.put("depth", 100);
+        REPO.put("branches", 4);
+    }
+
+    /** Untimed runs of a command before it is timed. */
+    static final int WARMUP = 10;
+
+    /** Timed runs of a command. */
+    static final int ITERATIONS = 30;
+
+    /** Words in the messages of the synthetic commits, for find. */
+    static final String[] WORDS = {"frobnicator", "timeout", "parser",
+        "cache", "index", "merge"};
+
+    /** Bytes in a megabyte. */
+    static final double MB = 1024 * 1024;
+
+    /** Nanoseconds in a second. */
+    static final double NANOS = 1e9;
+
+    /** Number of timed repetitions of each measurement. */
+    static final int ROUNDS = 5;
+
+    /** Runs the benchmarks named in ARGS. */
+    public static void main(String... args) throws IOException {
+        ArrayList<String> names = new ArrayList<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                names.add(arg);
+            } else if (REPO.containsKey(arg.substring(0, equals))) {
+                REPO.put(arg.substring(0, equals),
+                        Integer.parseInt(arg.substring(equals + 1)));
+            } else {
+                System.err.printf("Unknown setting: %s%n", arg);
+                System.exit(1);
+            }
+        }
+        if (names.isEmpty()) {
+            names.addAll(Arrays.asList(BENCHMARKS));
+        }
+        for (String name : names) {
+            switch (name) {
+            case "sha1":
+                sha1();
+                break;
+            case "compression":
+                compression();
+                break;
+            case "checkout":
+                checkout();
+                break;
+            case "serialization":
+                serialization();
+                break;
+            case "split-point":
+                splitPoint();
+                break;
+            case "find":
+                find();
+                break;
+            case "prefix":
+                prefix();
+                break;
+            case "add":
+                add();
+                break;
+            case "commands":
+                commands();
+                break;
+            case "commands-here":
+                commandsHere();
+                break;
+            default:
+                System.err.printf("Unknown benchmark: %s%n", name);
+                System.exit(1);
+            }
+        }
+    }
+
+    /** Times Utils.sha1 on contents of several sizes, and on the
+     *  strings hashed to make a commit ID. */
+    static void sha1() {
+        System.out.println("=== sha1 ===");
+        System.out.printf("%-10s %12s %10s%n", "input", "ns/hash", "MB/s");
+        for (int size : new int[] {64, 4096, 1 << 20}) {
+            byte[] contents = randomContents(size);
+            sha1(size + " B", size, () -> Utils.sha1(contents));
+        }
+        String parent = Utils.sha1("parent");
+        String tree = Utils.sha1("tree");
+        String[] parts = {"Fix the frobnicator's timeout", parent, tree,
+            "Thu Jan 1 00:00:00 1970 +0000"};
+        int length = 0;
+        for (String part : parts) {
+            length += part.length();
+        }
+        sha1("commit ID", length, () -> Utils.sha1((Object[]) parts));
+    }
+
+    /** Prints the mean time of HASH and the throughput it gives on
+     *  inputs of SIZE bytes, labelled INPUT. It is run once untimed to
+     *  warm up, then ROUNDS times over. */
+    static void sha1(String input, int size, Supplier<String> hash) {
+        int reps = Math.max(ROUNDS, (1 << 26) / Math.max(size, 1024));
+        long nanos = 0;
+        for (int round = 0; round <= ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < reps; i += 1) {
+                sink += hash.get().charAt(0);
+            }
+            if (round > 0) {
+                nanos += System.nanoTime() - start;
+            }
+        }
+        long ops = (long) reps * ROUNDS;
+        System.out.printf("%-10s %12d %10.1f%n", input, nanos / ops,
+                rate((long) size * ops, nanos));
+    }
+
+    /** Compares write and read throughput and on-disk size of raw blobs
+     *  against deflated blobs at several levels, for text-like and for
+     *  incompressible contents. */
+    static void compression() throws IOException {
+        final int size = 16 * 1024 * 1024;
+        File dir = tempDir();
+        File text = Utils.join(dir, "text.log");
+        File binary = Utils.join(dir, "random.bin");
+        Utils.writeContents(text, textContents(size));
+        Utils.writeContents(binary, randomContents(size));
+        File blobs = Utils.join(dir, "blobs");
+        blobs.mkdir();
+        System.out.println("=== compression ===");
+        System.out.printf("%-11s %-8s %10s %10s %12s%n", "file", "codec",
+                "write MB/s", "read MB/s", "on-disk MB");
+        int[] levels = {-1, 1, 6, 9};
+        for (File file : new File[] {text, binary}) {
+            for (int level : levels) {
+                long writeNanos = 0, readNanos = 0, stored = 0;
+                for (int i = 0; i < ROUNDS; i += 1) {
+                    long start = System.nanoTime();
+                    String sha = BlobStore.store(file, blobs, level);
+                    writeNanos += System.nanoTime() - start;
+                    File blob = Utils.join(blobs, sha);
+                    stored = blob.length();
+                    start = System.nanoTime();
+                    try (InputStream in = BlobStore.open(blob)) {
+                        in.transferTo(OutputStream.nullOutputStream());
+                    }
+                    readNanos += System.nanoTime() - start;
+                    blob.delete();
+                }
+                System.out.printf("%-11s %-8s %10.1f %10.1f %12.2f%n",
+                        file.getName(),
+                        level < 0 ? "raw" : "deflate" + level,
+                        rate(file.length() * ROUNDS, writeNanos),
+                        rate(file.length() * ROUNDS, readNanos),
+                        stored / MB);
+            }
+        }
+        deleteAll(dir);
+    }
+
+    /** Compares checkout of a tree of large binary files through the
+     *  old String round trip (readContentsAsString, then writeContents)
+     *  with BlobStore.checkout, for raw and deflated blobs, and reports
+     *  whether the result is byte-for-byte identical. */
+    static void checkout() throws IOException {
+        final int files = 16;
+        final int size = 8 * 1024 * 1024;
+        File dir = tempDir();
+        File work = Utils.join(dir, "work");
+        File blobs = Utils.join(dir, "blobs");
+        work.mkdir();
+        blobs.mkdir();
+        System.out.println("=== checkout ===");
+        System.out.printf("%-8s %-14s %10s %10s%n", "codec", "path",
+                "MB/s", "identical");
+        for (int level : new int[] {-1, 1}) {
+            File[] sources = new File[files];
+            String[] shas = new String[files];
+            for (int i = 0; i < files; i += 1) {
+                sources[i] = Utils.join(work, "asset" + i + ".bin");
+                Utils.writeContents(sources[i], randomContents(size + i));
+                shas[i] = BlobStore.store(sources[i], blobs, level);
+            }
+            String codec = level < 0 ? "raw" : "deflate" + level;
+            for (boolean viaString : new boolean[] {true, false}) {
+                boolean identical = true;
+                long nanos = 0;
+                for (int round = 0; round < ROUNDS; round += 1) {
+                    for (int i = 0; i < files; i += 1) {
+                        File blob = Utils.join(blobs, shas[i]);
+                        File dest = Utils.join(dir, sources[i].getName());
+                        long start = System.nanoTime();
+                        if (viaString) {
+                            String contents = new String(
+                                    BlobStore.readContents(blob),
+                                    StandardCharsets.UTF_8);
+                            Utils.writeContents(dest, contents);
+                        } else {
+                            BlobStore.checkout(blob, shas[i], dest);
+                        }
+                        nanos += System.nanoTime() - start;
+                        if (round == 0) {
+                            identical &= Arrays.equals(
+                                    Utils.readContents(sources[i]),
+                                    Utils.readContents(dest));
+                        }
+                    }
+                }
+                System.out.printf("%-8s %-14s %10.1f %10s%n", codec,
+                        viaString ? "String" : "BlobStore",
+                        rate((long) files * size * ROUNDS, nanos),
+                        identical ? "yes" : "no");
+            }
+        }
+        deleteAll(dir);
+    }
+
+    /** Compares the encodings of a commit, a large tree and a large
+     *  staging area with their Java-serialized forms: size in bytes, and
+     *  time per encode and per decode. The tree is compared with the
+     *  flat map of files the baseline serialized in its place, which is
+     *  also read back from a file by Utils.readObject. */
+    static void serialization() throws IOException {
+        final int entries = 10000;
+        LinkedHashMap<String, String> files = new LinkedHashMap<>();
+        for (int i = 0; i < entries; i += 1) {
+            files.put("File" + i + ".java", Utils.sha1("blob" + i));
+        }
+        Commit commit = new Commit("Fix the frobnicator's timeout",
+                Utils.sha1("parent"), Utils.sha1("tree"));
+        Tree tree = new Tree();
+        tree.getBlobs().putAll(files);
+        Staged staged = new Staged();
+        files.forEach(staged::add);
+        System.out.println("=== serialization ===");
+        System.out.printf("%-8s %-7s %10s %12s %12s%n", "object", "format",
+                "bytes", "encode ns", "decode ns");
+        serialization("commit", "java", () -> Utils.serialize(commit),
+                bytes -> Utils.deserialize(bytes, Commit.class));
+        serialization("commit", "gitlet", commit::toBytes,
+                bytes -> Commit.fromBytes(bytes, commit.getCommitSHA()));
+        serialization("tree", "java", () -> Utils.serialize(files),
+                bytes -> Utils.deserialize(bytes, LinkedHashMap.class));
+        serialization("tree", "gitlet", tree::encode, Tree::decode);
+        File file = File.createTempFile("gitlet-bench", ".ser");
+        Utils.writeContents(file, (Object) Utils.serialize(files));
+        serialization("tree", "file", () -> Utils.serialize(files),
+                bytes -> Utils.readObject(file, LinkedHashMap.class));
+        file.delete();
+        serialization("staged", "java", () -> Utils.serialize(staged),
+                bytes -> Utils.deserialize(bytes, Staged.class));
+        serialization("staged", "gitlet", staged::encode, Staged::decode);
+    }
+
+    /** Prints the size of the bytes made by ENCODE and the mean times of
+     *  ENCODE and of DECODE applied to them, labelled OBJECT and FORMAT.
+     *  Each is run once untimed to warm up, then ROUNDS times over. */
+    static void serialization(String object, String format,
+                              Supplier<byte[]> encode,
+                              Function<byte[], ?> decode) {
+        byte[] bytes = encode.get();
+        int reps = Math.max(ROUNDS, (1 << 24) / bytes.length);
+        long encodeNanos = 0, decodeNanos = 0;
+        for (int round = 0; round <= ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < reps; i += 1) {
+                sink += encode.get().length;
+            }
+            long encoded = System.nanoTime();
+            for (int i = 0; i < reps; i += 1) {
+                sink += decode.apply(bytes).hashCode();
+            }
+            if (round > 0) {
+                encodeNanos += encoded - start;
+                decodeNanos += System.nanoTime() - encoded;
+            }
+        }
+        long ops = (long) reps * ROUNDS;
+        System.out.printf("%-8s %-7s %10d %12d %12d%n", object, format,
+                bytes.length, encodeNanos / ops, decodeNanos / ops);
+    }
+
+    /** Times CommitGraph.splitPoint on a synthetic 100,000-commit
+     *  history with many short-lived branches and merges, against the
+     *  naive search that collects every ancestor of one commit and then
+     *  walks back from the other until it meets one, and checks that
+     *  both find latest common ancestors. */
+    static void splitPoint() throws IOException {
+        final int commits = 100000;
+        final int queries = 200;
+        File dir = tempDir();
+        File file = Utils.join(dir, "commit-graph");
+        Random random = new Random(commits);
+        int[] generations = new int[commits];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        file.toPath())))) {
+            out.write(CommitGraph.MAGIC);
+            for (int i = 0; i < commits; i += 1) {
+                int[] parents = {CommitGraph.NONE, CommitGraph.NONE};
+                if (i > 0) {
+                    parents[0] = Math.max(0, i - 1 - random.nextInt(64));
+                }
+                if (i > 1000 && random.nextInt(10) == 0) {
+                    parents[1] = i - 1 - random.nextInt(1000);
+                }
+                generations[i] = 1;
+                for (int p : parents) {
+                    if (p != CommitGraph.NONE) {
+                        generations[i] = Math.max(generations[i],
+                                generations[p] + 1);
+                    }
+                }
+                CommitGraph.writeRecord(out, Utils.sha1("commit" + i),
+                        parents, generations[i], i);
+            }
+        }
+        CommitGraph graph = CommitGraph.open(file);
+        int[][] pairs = new int[queries][2];
+        for (int[] pair : pairs) {
+            pair[0] = commits - 1 - random.nextInt(1000);
+            pair[1] = random.nextInt(2) == 0
+                    ? commits - 1 - random.nextInt(1000)
+                    : commits / 2 + random.nextInt(commits / 2);
+        }
+        System.out.println("=== split-point ===");
+        System.out.printf("%-11s %12s %10s%n", "search", "us/op", "agree");
+        for (boolean naive : new boolean[] {true, false}) {
+            boolean agree = true;
+            long nanos = 0;
+            for (int round = 0; round <= ROUNDS; round += 1) {
+                long start = System.nanoTime();
+                for (int[] pair : pairs) {
+                    int split = naive
+                            ? naiveSplitPoint(graph, pair[0], pair[1])
+                            : graph.splitPoint(pair[0], pair[1]);
+                    sink += split;
+                    if (round == 0) {
+                        agree &= isLatestCommonAncestor(graph, split,
+                                pair[0], pair[1]);
+                    }
+                }
+                if (round > 0) {
+                    nanos += System.nanoTime() - start;
+                }
+            }
+            System.out.printf("%-11s %12.1f %10s%n",
+                    naive ? "naive BFS" : "graph scan",
+                    nanos / 1e3 / queries / ROUNDS, agree ? "yes" : "no");
+        }
+        deleteAll(dir);
+    }
+
+    /** Times exact and substring message searches over 100,000 commits,
+     *  by decoding every commit as find used to and through a
+     *  MessageIndex. The commits are held in memory, so the scan pays
+     *  for decoding but not for reading files. */
+    static void find() throws IOException {
+        final int commits = 100000;
+        final String[] words = {"fix", "add", "remove", "refactor", "test",
+            "parser", "merge", "status", "checkout", "docs", "typo"};
+        File dir = tempDir();
+        File journal = Utils.join(dir, "messages");
+        Random random = new Random(commits);
+        byte[][] stored = new byte[commits][];
+        String[] ids = new String[commits];
+        String[] messages = new String[commits];
+        String tree = Utils.sha1("tree\n");
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(journal.toPath()))) {
+            out.write(MessageIndex.JOURNAL_MAGIC);
+            for (int i = 0; i < commits; i += 1) {
+                messages[i] = words[random.nextInt(words.length)] + " "
+                        + words[random.nextInt(words.length)] + " #"
+                        + random.nextInt(commits);
+                Commit commit = new Commit(messages[i],
+                        i == 0 ? null : ids[i - 1], tree);
+                ids[i] = commit.getCommitSHA();
+                stored[i] = commit.toBytes();
+                out.write(MessageIndex.record(ids[i], messages[i]));
+            }
+        }
+        File indexFile = Utils.join(dir, "messages.idx");
+        long start = System.nanoTime();
+        new MessageIndex(journal, indexFile).find("");
+        System.out.println("=== find ===");
+        System.out.printf("index build %10.1f ms, %d KB%n",
+                (System.nanoTime() - start) / 1e6, indexFile.length() / 1024);
+        System.out.printf("%-20s %12s %12s %8s%n", "query", "scan us/op",
+                "index us/op", "found");
+        String[] exact = {messages[commits / 2], "no such message"};
+        String[] contains = {"#4242", "checkout docs", "ge", "zzz"};
+        MessageIndex index = new MessageIndex(journal, indexFile);
+        for (String query : exact) {
+            findRow("= " + query, stored, ids,
+                    m -> m.equals(query), () -> index.find(query));
+        }
+        for (String query : contains) {
+            findRow("~ " + query, stored, ids,
+                    m -> m.contains(query),
+                    () -> index.findContaining(query));
+        }
+        deleteAll(dir);
+    }
+
+    /** Prints one row of the find benchmark, for a query answered by
+     *  decoding the STORED commits with the given IDS and testing their
+     *  messages with MATCHES, and by calling INDEXED. */
+    static void findRow(String query, byte[][] stored, String[] ids,
+                        Function<String, Boolean> matches,
+                        Supplier<List<String>> indexed) {
+        long scan = 0, lookup = 0;
+        int found = 0;
+        for (int round = 0; round <= ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            int count = 0;
+            for (int i = 0; i < stored.length; i += 1) {
+                if (matches.apply(Commit.fromBytes(stored[i], ids[i])
+                        .getMessage())) {
+                    count += 1;
+                }
+            }
+            long middle = System.nanoTime();
+            found = indexed.get().size();
+            long end = System.nanoTime();
+            if (found != count) {
+                throw new IllegalStateException("find disagrees: " + query);
+            }
+            if (round > 0) {
+                scan += middle - start;
+                lookup += end - middle;
+            }
+        }
+        System.out.printf("%-20s %12.1f %12.1f %8d%n", query,
+                scan / 1e3 / ROUNDS, lookup / 1e3 / ROUNDS, found);
+    }
+
+    /** Times resolving abbreviated commit IDs among 1,000,000 commits,
+     *  by comparing every ID as resolve used to and through the commit
+     *  graph's CommitIndex, and checks that both find the same
+     *  commits. */
+    static void prefix() throws IOException {
+        final int commits = 1000000;
+        final int queries = 1000;
+        final int scans = 5;
+        File dir = tempDir();
+        File file = Utils.join(dir, "commit-graph");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        file.toPath())))) {
+            out.write(CommitGraph.MAGIC);
+            for (int i = 0; i < commits; i += 1) {
+                int[] parents = {i - 1, CommitGraph.NONE};
+                CommitGraph.writeRecord(out, Utils.sha1("commit" + i),
+                        parents, i + 1, i);
+            }
+        }
+        CommitGraph graph = CommitGraph.open(file);
+        long start = System.nanoTime();
+        graph.position(graph.id(0));
+        System.out.println("=== prefix ===");
+        System.out.printf("index build %10.1f ms, %d KB%n",
+                (System.nanoTime() - start) / 1e6,
+                CommitGraph.indexFile(file).length() / 1024);
+        Random random = new Random(commits);
+        String[] prefixes = new String[queries];
+        for (int q = 0; q < queries; q += 1) {
+            prefixes[q] = graph.id(random.nextInt(commits))
+                    .substring(0, 4 + random.nextInt(4));
+        }
+        System.out.printf("%-11s %12s%n", "resolve", "us/op");
+        long nanos = 0;
+        for (int q = 0; q < scans; q += 1) {
+            long begin = System.nanoTime();
+            ArrayList<String> found = new ArrayList<>();
+            for (int i = 0; i < commits; i += 1) {
+                String id = graph.id(i);
+                if (id.startsWith(prefixes[q])) {
+                    found.add(id);
+                }
+            }
+            nanos += System.nanoTime() - begin;
+            found.sort(null);
+            List<String> indexed = graph.ids(prefixes[q], commits);
+            indexed.sort(null);
+            if (!found.equals(indexed)) {
+                throw new IllegalStateException("prefix disagrees: "
+                        + prefixes[q]);
+            }
+        }
+        System.out.printf("%-11s %12.1f%n", "scan", nanos / 1e3 / scans);
+        nanos = 0;
+        for (int round = 0; round <= ROUNDS; round += 1) {
+            long begin = System.nanoTime();
+            for (String prefix : prefixes) {
+                sink += graph.ids(prefix, 2).size();
+            }
+            if (round > 0) {
+                nanos += System.nanoTime() - begin;
+            }
+        }
+        System.out.printf("%-11s %12.1f%n", "index",
+                nanos / 1e3 / queries / ROUNDS);
+        deleteAll(dir);
+    }
+
+    /** Times staging 10,000 4 KB files in 100 directories by running
+     *  Gitlet in a temporary repository, since the working directory of
+     *  a repository is fixed for the life of a JVM: with one add per
+     *  file, as before add took many paths (timed on the first 200
+     *  files), and with a single "add ." on one thread and on the
+     *  default number of threads. */
+    static void add() throws IOException {
+        final int files = 10000;
+        final int single = 200;
+        File dir = tempDir();
+        for (int i = 0; i < files; i += 1) {
+            File file = Utils.join(dir, "d" + (i % 100), "f" + i + ".txt");
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, randomContents(4096 + i));
+        }
+        System.out.println("=== add ===");
+        System.out.printf("%-18s %10s %12s%n", "mode", "files",
+                "files/sec");
+        gitlet(dir, "init");
+        long start = System.nanoTime();
+        for (int i = 0; i < single; i += 1) {
+            gitlet(dir, "add", "d" + (i % 100) + "/f" + i + ".txt");
+        }
+        System.out.printf("%-18s %10d %12.0f%n", "one per call", single,
+                single * NANOS / (System.nanoTime() - start));
+        for (int threads : new int[] {1, 0}) {
+            deleteAll(Utils.join(dir, ".gitlet"));
+            gitlet(dir, "init");
+            if (threads > 0) {
+                Utils.writeContents(Utils.join(dir, ".gitlet", "config"),
+                        Objects.ADD_THREADS_KEY + "=" + threads + "\n");
+            }
+            start = System.nanoTime();
+            gitlet(dir, "add", ".");
+            System.out.printf("%-18s %10d %12.0f%n", threads > 0
+                    ? "batch, 1 thread" : "batch, all cores", files,
+                    files * NANOS / (System.nanoTime() - start));
+        }
+        deleteAll(dir);
+    }
+
+    /** Runs Gitlet with ARGS in DIR, in a new JVM, and waits for it. */
+    static void gitlet(File dir, String... args) throws IOException {
+        java(dir, ProcessBuilder.Redirect.DISCARD, "gitlet.Main", args);
+    }
+
+    /** Runs the main method of class MAIN with ARGS in DIR, in a new JVM
+     *  with this one's class path, sending its standard output to OUT,
+     *  and waits for it. */
+    static void java(File dir, ProcessBuilder.Redirect out, String main,
+                     String... args) throws IOException {
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path")
+                 .split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                classPath.append(classPath.length() == 0 ? ""
+                        : File.pathSeparator);
+                classPath.append(new File(entry).getAbsolutePath());
+            }
+        }
+        ArrayList<String> command = new ArrayList<>(List.of(
+                Utils.join(System.getProperty("java.home"), "bin", "java")
+                        .getPath(),
+                "-cp", classPath.toString(), main));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+                .redirectOutput(out)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException(main + " " + String.join(" ", args)
+                        + " failed");
+            }
+        } catch (InterruptedException excp) {
+            throw new IOException(excp);
+        }
+    }
+
+    /** Times each Gitlet command on a synthetic repository shaped by REPO
+     *  in a temporary directory. Since the working directory of a
+     *  repository is fixed for the life of a JVM, a new JVM builds the
+     *  repository and times the commands run in it many times over, warm,
+     *  as described at commandsHere. Then a new JVM is started for each
+     *  of a few runs of each read-only command, and the median is
+     *  reported, as a user running Gitlet from a shell sees it; running
+     *  no command at all gives the cost of starting the JVM. */
+    static void commands() throws IOException {
+        File dir = tempDir();
+        ArrayList<String> settings = new ArrayList<>();
+        REPO.forEach((key, value) -> settings.add(key + "=" + value));
+        settings.add("commands-here");
+        java(dir, ProcessBuilder.Redirect.INHERIT, "gitlet.Benchmark",
+                settings.toArray(new String[0]));
+        System.out.printf("%-28s %10s%n", "command, new JVM", "median ms");
+        String[][] commands = {{}, {"status"}, {"log"},
+            {"find", "--contains", WORDS[0]}};
+        for (String[] command : commands) {
+            long[] nanos = new long[ROUNDS];
+            for (int i = 0; i < ROUNDS; i += 1) {
+                long start = System.nanoTime();
+                gitlet(dir, command);
+                nanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("%-28s %10.1f%n", command.length == 0
+                    ? "(none)" : String.join(" ", command),
+                    nanos[ROUNDS / 2] / 1e6);
+        }
+        deleteAll(dir);
+    }
+
+    /** Builds a synthetic repository shaped by REPO in the working
+     *  directory, which must not hold one already, and times the
+     *  commands on it, each run in this JVM by Main.execute WARMUP times
+     *  untimed and then ITERATIONS times timed, with the mean and least
+     *  time of a run reported. The repository has REPO files in
+     *  directories of 100, and a history of REPO depth commits on
+     *  master, each after the first changing a hundredth of them, and
+     *  REPO branches side branches off its head, each changing as many
+     *  again. Read-only commands are timed first. checkout switches
+     *  between master and the first side branch, and reset between the
+     *  head of master and the commit halfway back. Each add stages one
+     *  changed file, and each commit commits one. */
+    static void commandsHere() throws IOException {
+        if (Objects.GITLET.exists()) {
+            System.err.println("commands-here must be run outside a "
+                    + "Gitlet repository.");
+            System.exit(1);
+        }
+        final int files = REPO.get("files");
+        final int depth = Math.max(REPO.get("depth"), 2);
+        final int branches = REPO.get("branches");
+        final int touched = Math.max(1, files / 100);
+        byte[] body = textContents(REPO.get("size"));
+        String[] paths = new String[files];
+        for (int i = 0; i < files; i += 1) {
+            paths[i] = "d" + i / 100 + "/f" + i + ".txt";
+        }
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(CAPTURED, true,
+                StandardCharsets.UTF_8));
+        Utils.setStdout(CAPTURED);
+        report.println("=== commands ===");
+        report.printf("repository: %s%n", REPO);
+        long start = System.nanoTime();
+        quiet("init");
+        for (int i = 0; i < files; i += 1) {
+            writeVersion(paths[i], 0, body);
+        }
+        quiet("add", ".");
+        quiet("commit", message(0));
+        String middle = null;
+        for (int c = 1; c < depth; c += 1) {
+            change(paths, c * touched, touched, c, body);
+            quiet("commit", message(c));
+            if (c == depth / 2) {
+                middle = Utils.readContentsAsString(Objects.MASTER);
+            }
+        }
+        String head = Utils.readContentsAsString(Objects.MASTER);
+        for (int b = 1; b <= branches; b += 1) {
+            quiet("branch", "b" + b);
+            quiet("checkout", "b" + b);
+            change(paths, b * touched * 7, touched, depth + b, body);
+            quiet("commit", "Side branch b" + b);
+            quiet("checkout", "master");
+        }
+        report.printf("built in %.1f s%n",
+                (System.nanoTime() - start) / NANOS);
+        report.printf("%-20s %10s %10s%n", "command, warm", "mean ms",
+                "min ms");
+        final String found = message(depth / 2);
+        final String changing = paths[0];
+        final String mid = middle;
+        timed(report, "status", 1, i -> time("status"));
+        timed(report, "log", 1, i -> time("log"));
+        timed(report, "find", 1, i -> time("find", found));
+        timed(report, "find --contains", 1,
+            i -> time("find", "--contains", WORDS[0]));
+        if (branches > 0) {
+            timed(report, "checkout", 2, i -> time("checkout", "b1")
+                    + time("checkout", "master"));
+        }
+        timed(report, "reset", 2,
+            i -> time("reset", mid) + time("reset", head));
+        timed(report, "add", 1, i -> {
+            writeVersion(changing, 2 * depth + i, body);
+            return time("add", changing);
+        });
+        timed(report, "commit", 1, i -> {
+            writeVersion(changing, 3 * depth + i, body);
+            quiet("add", changing);
+            return time("commit", "Benchmark commit " + i);
+        });
+    }
+
+    /** Runs STEP WARMUP times and then ITERATIONS times, and prints to
+     *  REPORT, labelled NAME, the mean and least time it gave for one
+     *  of the RUNS runs of a command it times. */
+    static void timed(PrintStream report, String name, int runs, Step step)
+            throws IOException {
+        for (int i = 0; i < WARMUP; i += 1) {
+            step.run(i);
+        }
+        long total = 0, least = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i += 1) {
+            long nanos = step.run(WARMUP + i);
+            total += nanos;
+            least = Math.min(least, nanos / runs);
+        }
+        report.printf("%-20s %10.2f %10.2f%n", name,
+                total / 1e6 / ITERATIONS / runs, least / 1e6);
+    }
+
+    /** One timed step of a command benchmark. */
+    interface Step {
+        /** Runs step I, returning the nanoseconds spent in the command
+         *  or commands it times. */
+        long run(int i) throws IOException;
+    }
+
+    /** Runs Gitlet with ARGS in this JVM, checking that it printed
+     *  nothing, and returns the nanoseconds it took. */
+    static long time(String... args) throws IOException {
+        long start = System.nanoTime();
+        String output = command(args);
+        long nanos = System.nanoTime() - start;
+        if (!args[0].equals("status") && !args[0].equals("log")
+                && !args[0].equals("find") && !output.isEmpty()) {
+            throw new IOException("gitlet " + String.join(" ", args)
+                    + ": " + output);
+        }
+        return nanos;
+    }
+
+    /** Runs Gitlet with ARGS in this JVM, checking that it printed
+     *  nothing. */
+    static void quiet(String... args) throws IOException {
+        time(args);
+    }
+
+    /** Runs Gitlet with ARGS in this JVM and returns what it printed. */
+    static String command(String... args) throws IOException {
+        CAPTURED.reset();
+        Main.execute(args);
+        System.out.flush();
+        return CAPTURED.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Writes version VERSION of COUNT of the working files at PATHS,
+     *  from the one at FIRST on, wrapping around, each as by
+     *  writeVersion with BODY, and stages them. */
+    static void change(String[] paths, int first, int count, int version,
+                       byte[] body) throws IOException {
+        String[] add = new String[count + 1];
+        add[0] = "add";
+        for (int i = 0; i < count; i += 1) {
+            add[i + 1] = paths[(first + i) % paths.length];
+            writeVersion(add[i + 1], version, body);
+        }
+        quiet(add);
+    }
+
+    /** Writes version VERSION of the working file at PATH: a line naming
+     *  both, followed by BODY. */
+    static void writeVersion(String path, int version, byte[] body) {
+        File file = Utils.join(Objects.CWD, path);
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, path + " version " + version + "\n",
+                body);
+    }
+
+    /** Returns the message of synthetic commit C. */
+    static String message(int c) {
+        return "Commit " + c + " of the " + WORDS[c % WORDS.length];
+    }
+
+    /** Collects what commands run by command print. */
+    static final ByteArrayOutputStream CAPTURED = new ByteArrayOutputStream();
+
+    /** Returns true if SPLIT is a common ancestor of commits A and B of
+     *  GRAPH and is an ancestor of neither of the split points found by
+     *  naiveSplitPoint and CommitGraph.splitPoint, unless it is that
+     *  split point. */
+    static boolean isLatestCommonAncestor(CommitGraph graph, int split,
+                                          int a, int b) {
+        if (!graph.isAncestor(split, a) || !graph.isAncestor(split, b)) {
+            return false;
+        }
+        for (int other : new int[] {naiveSplitPoint(graph, a, b),
+                                    graph.splitPoint(a, b)}) {
+            if (other != split && graph.isAncestor(split, other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the split point of commits A and B of GRAPH found by
+     *  marking every ancestor of A and then searching breadth-first
+     *  back from B for the nearest marked commit that is latest by
+     *  generation. */
+    static int naiveSplitPoint(CommitGraph graph, int a, int b) {
+        boolean[] ofA = new boolean[graph.size()];
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.add(a);
+        while (!pending.isEmpty()) {
+            int i = pending.poll();
+            if (!ofA[i]) {
+                ofA[i] = true;
+                for (int which = 0; which < 2; which += 1) {
+                    if (graph.parent(i, which) != CommitGraph.NONE) {
+                        pending.add(graph.parent(i, which));
+                    }
+                }
+            }
+        }
+        boolean[] seen = new boolean[graph.size()];
+        int best = CommitGraph.NONE;
+        pending.add(b);
+        while (!pending.isEmpty()) {
+            int i = pending.poll();
+            if (seen[i]) {
+                continue;
+            }
+            seen[i] = true;
+            if (ofA[i]) {
+                if (best == CommitGraph.NONE
+                        || graph.generation(i) > graph.generation(best)) {
+                    best = i;
+                }
+                continue;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                if (graph.parent(i, which) != CommitGraph.NONE) {
+                    pending.add(graph.parent(i, which));
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Returns SIZE bytes of log-like text. */
+    static byte[] textContents(int size) {
+        Random random = new Random(size);
+        StringBuilder text = new StringBuilder(size);
+        String[] levels = {"INFO", "DEBUG", "WARN", "ERROR"};
+        while (text.length() < size) {
+            text.append(String.format("2020-01-%02d 12:%02d:%02d %s "
+                    + "worker-%d handled request %d in %d ms%n",
+                    1 + random.nextInt(28), random.nextInt(60),
+                    random.nextInt(60), levels[random.nextInt(4)],
+                    random.nextInt(16), random.nextInt(100000),
+                    random.nextInt(500)));
+        }
+        text.setLength(size);
+        return text.toString().getBytes();
+    }
+
+    /** Returns SIZE incompressible bytes. */
+    static byte[] randomContents(int size) {
+        byte[] contents = new byte[size];
+        new Random(size).nextBytes(contents);
+        return contents;
+    }
+
+    /** Returns throughput in MB/s of BYTES handled in NANOS ns. */
+    static double rate(long bytes, long nanos) {
+        return bytes / MB / (nanos / NANOS);
+    }
+
+    /** Returns a new empty scratch directory. */
+    static File tempDir() throws IOException {
+        return Files.createTempDirectory("gitlet-bench").toFile();
+    }
+
+    /** Accumulates benchmark results so they are not optimized away. */
+    static long sink;
+
+    /** Deletes FILE and, if it is a directory, everything under it. */
+    static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,292 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** Reads and writes the file contents kept in BLOBS, falling back to
+ * packs for blobs that have been repacked.
+ *
+ * A blob is either a raw copy of the file (the original format) or a
+ * HEADER followed by one codec byte and the encoded contents. Raw blobs
+ * that happen to begin with HEADER are written with the RAW codec so
+ * that they are never mistaken for encoded ones.
+ * @author Daniel Bostwick */
+public class BlobStore {
+
+    /** Marks a blob that carries a codec byte. */
+    static final byte[] HEADER = {0, 'g', 'l', 'b'};
+
+    /** Codec byte of contents stored as is. */
+    static final byte RAW = 0;
+
+    /** Codec byte of deflate-compressed contents. */
+    static final byte DEFLATE = 1;
+
+    /** Config key choosing the codec of new blobs: none or deflate. */
+    static final String COMPRESSION_KEY = "blobs.compression";
+
+    /** Config key giving the deflate level, 1 (fastest) to 9 (smallest). */
+    static final String LEVEL_KEY = "blobs.compressionLevel";
+
+    /** Default deflate level. */
+    static final int DEFAULT_LEVEL = 6;
+
+    /** Gets the file holding the blob with the given ID.
+     * @param sha The blob's SHA-1 ID.
+     * @return The blob file. */
+    static File blobFile(String sha) {
+        return Utils.join(Objects.BLOBS, sha);
+    }
+
+    /** Checks whether a blob is stored.
+     * @param sha The blob's SHA-1 ID.
+     * @return True if the blob exists. */
+    static boolean contains(String sha) {
+        return blobFile(sha).isFile() || Pack.contains(sha);
+    }
+
+    /** Gets the deflate level configured for this repository.
+     * @return The level, or -1 if new blobs are stored raw. */
+    static int configuredLevel() {
+        String codec = Config.get(COMPRESSION_KEY, "none");
+        if (codec.equals("none")) {
+            return -1;
+        } else if (codec.equals("deflate")) {
+            int level = Config.getInt(LEVEL_KEY, DEFAULT_LEVEL);
+            return Math.max(Deflater.BEST_SPEED,
+                    Math.min(Deflater.BEST_COMPRESSION, level));
+        }
+        throw Utils.error("Unknown blob compression in config: %s", codec);
+    }
+
+    /** Copies FILE into the blob store using the configured codec.
+     * @param file A file in the working directory.
+     * @return The blob SHA-1 ID of FILE. */
+    static String store(File file) {
+        return store(file, Objects.BLOBS, configuredLevel());
+    }
+
+    /** Copies FILE into the blob directory DIR in a single pass, hashing
+     * it in fixed-size chunks while writing a temporary blob that is then
+     * atomically renamed to its SHA-1 ID. Memory use is bounded
+     * regardless of the size of FILE.
+     * @param file A file in the working directory.
+     * @param dir The blob directory.
+     * @param level Deflate level, or -1 to store the contents raw.
+     * @return The blob SHA-1 ID of FILE. */
+    static String store(File file, File dir, int level) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        long start = Stats.start();
+        MessageDigest md = Utils.sha1Digest();
+        md.update(file.getName().getBytes(StandardCharsets.UTF_8));
+        long length = 0;
+        File temp = null;
+        Deflater deflater = level >= 0 ? new Deflater(level) : null;
+        try {
+            temp = File.createTempFile("blob", ".tmp", dir);
+            byte[] buffer = new byte[Utils.CHUNK_SIZE];
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = Files.newOutputStream(temp.toPath())) {
+                int n = in.readNBytes(buffer, 0, buffer.length);
+                OutputStream body = encoder(out, deflater, buffer, n);
+                while (n > 0) {
+                    md.update(buffer, 0, n);
+                    body.write(buffer, 0, n);
+                    length += n;
+                    n = in.read(buffer);
+                }
+                body.close();
+            }
+            String sha = Utils.hex(md);
+            File blob = Utils.join(dir, sha);
+            if (blob.exists()) {
+                temp.delete();
+            } else {
+                Files.move(temp.toPath(), blob.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                Journal.created(blob);
+            }
+            Stats.record(Stats.HASH, length, start);
+            return sha;
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /** Writes the blob header, if one is needed, and returns the stream
+     * through which the contents are to be written.
+     * @param out The blob file's stream.
+     * @param deflater The compressor, or null for raw contents.
+     * @param first The first chunk of the contents.
+     * @param length The length of FIRST.
+     * @return The stream for the contents. */
+    private static OutputStream encoder(OutputStream out, Deflater deflater,
+                                        byte[] first, int length)
+            throws IOException {
+        if (deflater != null) {
+            out.write(HEADER);
+            out.write(DEFLATE);
+            return new DeflaterOutputStream(out, deflater, Utils.CHUNK_SIZE);
+        }
+        if (length >= HEADER.length && Arrays.equals(HEADER, 0,
+                HEADER.length, first, 0, HEADER.length)) {
+            out.write(HEADER);
+            out.write(RAW);
+        }
+        return out;
+    }
+
+    /** Opens the decoded contents of a blob.
+     * @param sha The blob's SHA-1 ID.
+     * @return A stream of the original file contents. */
+    static InputStream open(String sha) {
+        File blob = blobFile(sha);
+        if (!blob.isFile()) {
+            InputStream packed = Pack.open(sha);
+            if (packed != null) {
+                return packed;
+            }
+        }
+        return open(blob);
+    }
+
+    /** Opens the decoded contents of the blob file BLOB.
+     * @param blob A blob file.
+     * @return A stream of the original file contents. */
+    static InputStream open(File blob) {
+        try {
+            BufferedInputStream in = new BufferedInputStream(
+                    new FileInputStream(blob), Utils.CHUNK_SIZE);
+            in.mark(HEADER.length + 1);
+            byte[] header = in.readNBytes(HEADER.length + 1);
+            if (header.length <= HEADER.length || !Arrays.equals(HEADER, 0,
+                    HEADER.length, header, 0, HEADER.length)) {
+                in.reset();
+                return in;
+            }
+            switch (header[HEADER.length]) {
+            case RAW:
+                return in;
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            default:
+                in.close();
+                throw Utils.error("Unknown codec in blob %s", blob.getName());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of a blob to DEST, creating or overwriting it.
+     * Raw loose blobs are copied file to file with
+     * FileChannel.transferTo, without passing through the Java heap;
+     * other blobs are decoded in fixed-size chunks.
+     * @param sha The blob's SHA-1 ID.
+     * @param dest The file to be written. */
+    static void checkout(String sha, File dest) {
+        checkout(blobFile(sha), sha, dest);
+    }
+
+    /** Writes the contents of the blob SHA, whose loose file would be
+     * BLOB, to DEST.
+     * @param blob The loose blob file, which need not exist.
+     * @param sha The blob's SHA-1 ID.
+     * @param dest The file to be written. */
+    static void checkout(File blob, String sha, File dest) {
+        if (dest.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        dest.getAbsoluteFile().getParentFile().mkdirs();
+        long begun = Stats.start();
+        try (FileChannel out = FileChannel.open(dest.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long start = blob.isFile() ? rawStart(blob) : -1;
+            if (start >= 0) {
+                try (FileChannel in = FileChannel.open(blob.toPath())) {
+                    long size = in.size();
+                    long done = start;
+                    while (done < size) {
+                        done += in.transferTo(done, size - done, out);
+                    }
+                }
+            } else {
+                InputStream in = blob.isFile() ? open(blob) : open(sha);
+                try (in) {
+                    in.transferTo(Channels.newOutputStream(out));
+                }
+            }
+            Stats.record(Stats.WRITE, out.size(), begun);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Finds where the contents of a loose blob begin, if it is raw.
+     * @param blob A loose blob file.
+     * @return The offset of the contents, or -1 if they are encoded. */
+    private static long rawStart(File blob) throws IOException {
+        byte[] header;
+        try (InputStream in = new FileInputStream(blob)) {
+            header = in.readNBytes(HEADER.length + 1);
+        }
+        if (header.length <= HEADER.length || !Arrays.equals(HEADER, 0,
+                HEADER.length, header, 0, HEADER.length)) {
+            return 0;
+        }
+        return header[HEADER.length] == RAW ? header.length : -1;
+    }
+
+    /** Gets the decoded contents of a blob.
+     * @param sha The blob's SHA-1 ID.
+     * @return The original file contents. */
+    static byte[] readContents(String sha) {
+        File blob = blobFile(sha);
+        if (!blob.isFile()) {
+            byte[] packed = Pack.readBytes(sha);
+            if (packed != null) {
+                return packed;
+            }
+        }
+        return readContents(blob);
+    }
+
+    /** Gets the decoded contents of the blob file BLOB.
+     * @param blob A blob file.
+     * @return The original file contents. */
+    static byte[] readContents(File blob) {
+        try (InputStream in = open(blob)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
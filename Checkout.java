@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/** Materializes a commit's files in the working directory, fanning the
+ * file writes and deletes out across a pool of worker threads.
+ * @author Daniel Bostwick */
+public class Checkout {
+
+    /** Config key giving the number of worker threads. */
+    static final String THREADS_KEY = "checkout.threads";
+
+    /** Checkout Constructor using the configured number of threads,
+     * which defaults to one per processor. */
+    public Checkout() {
+        this(Config.getInt(THREADS_KEY,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Checkout Constructor.
+     * @param workers The number of worker threads; 1 runs everything on
+     *                the calling thread. */
+    public Checkout(int workers) {
+        this.threads = Math.max(1, workers);
+    }
+
+    /** Replaces the files of commit FROM in the working directory with
+     * those of commit TO. Directories whose known working files already
+     * have TO's tree ID are skipped, as are files known to hold the right
+     * blob; every other file TO tracks is written.
+     * @param from The commit currently checked out.
+     * @param to The commit to check out.
+     * @param working Blob SHA-1 IDs known for working files, by path. */
+    public void run(Commit from, Commit to, Map<String, String> working) {
+        HashMap<String, String> workingDirs = new HashMap<>();
+        Tree.build(working, workingDirs, false);
+        LinkedHashMap<String, String> writes = new LinkedHashMap<>();
+        changed(to.getTree(), "", workingDirs, working, writes);
+        Map<String, String> target = to.getBlobs();
+        ArrayList<String> deletes = new ArrayList<>();
+        for (String path : from.getBlobs().keySet()) {
+            if (!target.containsKey(path)) {
+                deletes.add(path);
+            }
+        }
+        run(writes, deletes);
+    }
+
+    /** Collects the files under tree SHA that differ in the working
+     * directory.
+     * @param sha The SHA-1 ID of a tree being checked out.
+     * @param dir The tree's path.
+     * @param workingDirs Tree IDs of the working directories, by path.
+     * @param working Blob SHA-1 IDs known for working files, by path.
+     * @param writes Receives the paths to write, mapped to blob IDs. */
+    private static void changed(String sha, String dir,
+                                Map<String, String> workingDirs,
+                                Map<String, String> working,
+                                Map<String, String> writes) {
+        if (sha.equals(workingDirs.get(dir))) {
+            return;
+        }
+        Tree tree = Tree.read(sha);
+        for (Map.Entry<String, String> blob : tree.getBlobs().entrySet()) {
+            String path = Tree.child(dir, blob.getKey());
+            if (!blob.getValue().equals(working.get(path))) {
+                writes.put(path, blob.getValue());
+            }
+        }
+        for (Map.Entry<String, String> sub : tree.getTrees().entrySet()) {
+            changed(sub.getValue(), Tree.child(dir, sub.getKey()),
+                    workingDirs, working, writes);
+        }
+    }
+
+    /** Writes every file in FILES to the working directory and then
+     * deletes the files named in REMOVED.
+     * @param files File paths mapped to blob SHA-1 IDs.
+     * @param removed Paths of files to delete. */
+    public void run(Map<String, String> files, Collection<String> removed) {
+        long start = System.nanoTime();
+        List<Map.Entry<String, String>> writes =
+                new ArrayList<>(files.entrySet());
+        List<String> deletes = new ArrayList<>(removed);
+        if (threads == 1) {
+            writes.forEach(Checkout::write);
+            deletes.forEach(Checkout::delete);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> writes.parallelStream()
+                        .forEach(Checkout::write)).get();
+                pool.submit(() -> deletes.parallelStream()
+                        .forEach(Checkout::delete)).get();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw Utils.error("Checkout interrupted.");
+            } catch (ExecutionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        synchronized (Checkout.class) {
+            filesWritten += writes.size();
+            filesDeleted += deletes.size();
+            nanos += System.nanoTime() - start;
+        }
+    }
+
+    /** Writes one tracked file.
+     * @param file A file path and its blob SHA-1 ID. */
+    private static void write(Map.Entry<String, String> file) {
+        BlobStore.checkout(file.getValue(),
+                Utils.join(Objects.CWD, file.getKey()));
+    }
+
+    /** Deletes one file that is no longer tracked, along with any
+     * directories it leaves empty.
+     * @param path The file's path. */
+    private static void delete(String path) {
+        Utils.restrictedDelete(Objects.CWD, path);
+    }
+
+    /** Zeroes the counters, as each command starts. */
+    static synchronized void resetCounters() {
+        filesWritten = 0;
+        filesDeleted = 0;
+        nanos = 0;
+    }
+
+    /** Gets the number of files written by this process.
+     * @return filesWritten. */
+    static synchronized long getFilesWritten() {
+        return filesWritten;
+    }
+
+    /** Gets the number of files deleted by this process.
+     * @return filesDeleted. */
+    static synchronized long getFilesDeleted() {
+        return filesDeleted;
+    }
+
+    /** Gets the rate at which this process wrote and deleted files.
+     * @return Files per second, or 0 if nothing was checked out. */
+    static synchronized double getFilesPerSecond() {
+        if (nanos == 0) {
+            return 0;
+        }
+        return (filesWritten + filesDeleted) / (nanos / 1e9);
+    }
+
+    /** Number of worker threads. */
+    private final int threads;
+
+    /** Files written by this process. */
+    private static long filesWritten;
+
+    /** Files deleted by this process. */
+    private static long filesDeleted;
+
+    /** Time spent checking out files, in nanoseconds. */
+    private static long nanos;
+}
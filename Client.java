@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** Thin client for the Daemon: sends it a command and copies back the
+ * command's output. Run as java gitlet.Client ARGS, with the same
+ * arguments as Main; if no daemon is running in this repository, the
+ * command is run here by Main instead.
+ * @author Daniel Bostwick */
+public class Client {
+
+    /** Runs the command in ARGS through the daemon if there is one.
+     * @param args The command and its operands. */
+    public static void main(String... args) throws IOException {
+        if (!forward(args)) {
+            Main.main(args);
+        }
+    }
+
+    /** Sends a command to the daemon and copies its output to this
+     * process's standard output and error.
+     * @param args The command and its operands.
+     * @return False if no daemon is answering. */
+    static boolean forward(String[] args) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                    UnixDomainSocketAddress.of(SOCKETFILE.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            request.writeUTF(System.getProperty("user.dir"));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            DataInputStream reply = new DataInputStream(
+                    Channels.newInputStream(channel));
+            OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(FileDescriptor.out), Utils.CHUNK_SIZE);
+            OutputStream err = new FileOutputStream(FileDescriptor.err);
+            byte[] buffer = new byte[Utils.CHUNK_SIZE];
+            for (int type = reply.readByte(); type != Daemon.END;
+                 type = reply.readByte()) {
+                int length = reply.readInt();
+                OutputStream target = type == Daemon.ERR ? err : out;
+                while (length > 0) {
+                    int n = reply.read(buffer, 0,
+                            Math.min(length, buffer.length));
+                    if (n < 0) {
+                        throw new IOException("daemon closed connection");
+                    }
+                    target.write(buffer, 0, n);
+                    length -= n;
+                }
+            }
+            out.flush();
+        }
+        return true;
+    }
+
+    /** The daemon's socket. Kept here rather than in Daemon so that the
+     * client loads as little of Gitlet as it can. */
+    static final File SOCKETFILE = new File(
+            new File(System.getProperty("user.dir"), ".gitlet"),
+            "daemon.sock");
+}
@@ -1,27 +1,64 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
-
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /** Class that creates Commits.
+ *
+ * A commit is stored as MAGIC followed by its epoch timestamp in
+ * milliseconds, its message, a count of its parents and their IDs, and
+ * the ID of its root tree; strings and IDs are written as by
+ * Utils.writeString and Utils.writeId. Its SHA-1 ID is the hash of
+ * exactly those bytes. Commits written by
+ * older versions are Java-serialized and keep the IDs they were given.
  * @author Daniel Bostwick*/
 
 public class Commit implements Serializable {
 
+    /** Start of every encoded commit: three magic bytes and the format
+     * version. */
+    static final byte[] MAGIC = {'G', 'C', 'M', 1};
+
     /** Commit Constructor.
-     * @param blobs the blobs.
+     * @param rootTree the SHA-1 ID of the tree of tracked files.
      * @param commitParent the parent commit.
      * @param msg the commit message. */
-    public Commit(String msg, String commitParent,
-                  LinkedHashMap<String, String> blobs) {
+    public Commit(String msg, String commitParent, String rootTree) {
+        this(msg, commitParent, null, rootTree);
+    }
+
+    /** Commit Constructor for a merge.
+     * @param rootTree the SHA-1 ID of the tree of tracked files.
+     * @param commitParent the first parent: the commit merged into.
+     * @param mergedParent the second parent: the commit merged in, or
+     *                     null if this is not a merge.
+     * @param msg the commit message. */
+    public Commit(String msg, String commitParent, String mergedParent,
+                  String rootTree) {
         this.message = msg;
         this.parent = commitParent;
-        this.addedBlobs = blobs;
-        this.timestamp = getTimestamp();
-        this.sha1Commit = Utils.sha1(Utils.serialize(this));
+        this.secondParent = mergedParent;
+        this.tree = rootTree;
+        this.epochMillis = commitParent == null
+                ? 0 : System.currentTimeMillis();
+        this.sha1Commit = Utils.sha1(encode());
+    }
+
+    /** Commit Constructor for a commit read from the store.
+     * @param sha the SHA-1 ID of the commit. */
+    private Commit(String sha) {
+        this.sha1Commit = sha;
     }
 
     /** This gets a commit message.
@@ -30,15 +67,20 @@ public class Commit implements Serializable {
         return this.message;
     }
 
-    /** Gets the timestamp of the Commit.
+    /** Gets the timestamp of the Commit, in the local time zone.
      * @return timestamp. */
     public String getTimestamp() {
-        if (message.equals("initial commit")) {
-            this.timestamp = "Wed Dec 31 16:00:00 1969 -0800";
-        } else {
-            this.timestamp = time.format(new Date());
+        if (timestamp != null) {
+            return timestamp;
         }
-        return this.timestamp;
+        return DATE_FORMAT.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /** Gets the time of the Commit. Commits written by older versions
+     * only recorded a formatted timestamp, and report 0.
+     * @return Milliseconds since the epoch. */
+    public long getEpochMillis() {
+        return epochMillis;
     }
 
     /** Gets the parent of the Commit.
@@ -47,10 +89,54 @@ public class Commit implements Serializable {
         return this.parent;
     }
 
-    /** String fileName, String sha1.
+    /** Gets the second parent of a merge Commit.
+     * @return The second parent, or null if this is not a merge. */
+    public String getSecondParent() {
+        return this.secondParent;
+    }
+
+    /** String path, String sha1, for every tracked file. Read from the
+     * commit's tree on first use.
      * @return addedBlobs. */
     public LinkedHashMap<String, String> getBlobs() {
-        return addedBlobs;
+        if (addedBlobs != null) {
+            return addedBlobs;
+        }
+        if (flatBlobs == null) {
+            flatBlobs = Tree.flatten(tree);
+        }
+        return flatBlobs;
+    }
+
+    /** Looks up some tracked files, reading only the directories of the
+     * commit's tree that lead to them, unless the tree was already
+     * flattened.
+     * @param paths The paths to look up.
+     * @return Those of PATHS the commit tracks, mapped to their blob
+     *         SHA-1 IDs. */
+    public Map<String, String> getBlobs(Collection<String> paths) {
+        if (addedBlobs == null && flatBlobs == null) {
+            return Tree.lookup(tree, paths);
+        }
+        HashMap<String, String> files = new HashMap<>();
+        for (String path : paths) {
+            String blob = getBlobs().get(path);
+            if (blob != null) {
+                files.put(path, blob);
+            }
+        }
+        return files;
+    }
+
+    /** Gets the SHA-1 ID of the Commit's root tree. Commits made before
+     * trees existed hold a flat map instead, whose trees are built and
+     * stored on demand.
+     * @return tree. */
+    public String getTree() {
+        if (tree == null) {
+            tree = Tree.write(addedBlobs);
+        }
+        return tree;
     }
 
     /** Gets the SHA1 ID of the Commit.
@@ -59,23 +145,99 @@ public class Commit implements Serializable {
         return sha1Commit;
     }
 
+    /** Gets the stored form of the Commit: its encoding, or for commits
+     * written by older versions their original serialized form, which
+     * their IDs were computed from.
+     * @return The bytes to store. */
+    byte[] toBytes() {
+        if (addedBlobs != null || timestamp != null) {
+            return Utils.serialize(this);
+        }
+        return encode();
+    }
+
+    /** Encodes the Commit as described above.
+     * @return The encoding. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeLong(epochMillis);
+            Utils.writeString(out, message);
+            out.writeByte(parent == null ? 0 : secondParent == null ? 1 : 2);
+            if (parent != null) {
+                Utils.writeId(out, parent);
+            }
+            if (secondParent != null) {
+                Utils.writeId(out, secondParent);
+            }
+            Utils.writeId(out, tree);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Reads a Commit from its stored form, encoded or serialized.
+     * @param bytes The stored form.
+     * @param sha The SHA-1 ID the commit is stored under.
+     * @return The commit. */
+    static Commit fromBytes(byte[] bytes, String sha) {
+        if (Utils.isSerialized(bytes)) {
+            return Utils.deserialize(bytes, Commit.class);
+        }
+        long start = Stats.start();
+        try (DataInputStream in = Utils.decoder(bytes, MAGIC)) {
+            Commit commit = new Commit(sha);
+            commit.epochMillis = in.readLong();
+            commit.message = Utils.readString(in);
+            int parents = in.readUnsignedByte();
+            if (parents > 0) {
+                commit.parent = Utils.readId(in);
+            }
+            if (parents > 1) {
+                commit.secondParent = Utils.readId(in);
+            }
+            commit.tree = Utils.readId(in);
+            Stats.record(Stats.DESERIALIZE, bytes.length, start);
+            return commit;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Formats commit times as in "Thu Nov 9 20:00:05 2017 -0800". */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.US)
+            .withZone(ZoneId.systemDefault());
+
     /** A Commit message. */
     private String message;
 
-    /** A Commit timestamp for the initial Commit. */
+    /** The formatted timestamp of commits written by older versions. */
     private String timestamp;
 
     /** A Commit parent. */
     private String parent;
 
-    /** A Commit timestamp for every Commit besides the initial Commit. */
-    private SimpleDateFormat time =
-            new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+    /** The second parent of a merge Commit. */
+    private String secondParent;
+
+    /** The commit time, in milliseconds since the epoch. */
+    private long epochMillis;
 
     /** Commits' SHA1 ID. */
     private String sha1Commit;
 
-    /** Creates a HashMap to store blobs. */
+    /** The flat map of blobs held by commits made before trees. */
     private LinkedHashMap<String, String> addedBlobs;
-}
 
+    /** SHA-1 ID of the root tree. */
+    private String tree;
+
+    /** The files of the tree, once read. */
+    private transient LinkedHashMap<String, String> flatBlobs;
+
+    /** Keeps commits written by older versions readable. */
+    private static final long serialVersionUID = -1297982123901273855L;
+}
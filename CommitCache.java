@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Bounded, least-recently-used cache of deserialized Commits shared by
+ * every commit lookup in a process.
+ * @author Daniel Bostwick */
+public class CommitCache {
+
+    /** Default number of commits kept in memory. */
+    static final int DEFAULT_SIZE = 4096;
+
+    /** Commit Cache Constructor.
+     * @param size The maximum number of commits held at once. */
+    public CommitCache(int size) {
+        this.capacity = Math.max(1, size);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                    Commit> eldest) {
+                if (size() > capacity) {
+                    evictions += 1;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Gets a cached commit, marking it most recently used.
+     * @param sha The SHA-1 ID of the commit.
+     * @return The commit, or null on a miss. */
+    public synchronized Commit get(String sha) {
+        Commit commit = entries.get(sha);
+        if (commit == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return commit;
+    }
+
+    /** Adds a commit to the cache, evicting the least recently used one
+     * if the cache is full.
+     * @param sha The SHA-1 ID of the commit.
+     * @param commit The commit. */
+    public synchronized void put(String sha, Commit commit) {
+        entries.put(sha, commit);
+    }
+
+    /** Empties the cache. Counters are kept. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** Zeroes the counters, as each command starts. */
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /** Gets the number of lookups served from memory.
+     * @return hits. */
+    public long getHits() {
+        return hits;
+    }
+
+    /** Gets the number of lookups that had to read the object store.
+     * @return misses. */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** Gets the number of commits dropped to stay within capacity.
+     * @return evictions. */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /** Gets the maximum number of cached commits.
+     * @return capacity. */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Maximum number of cached commits. */
+    private final int capacity;
+
+    /** Access-ordered map of SHA-1 ID to Commit. */
+    private final LinkedHashMap<String, Commit> entries;
+
+    /** Lookups served from memory. */
+    private long hits;
+
+    /** Lookups that missed. */
+    private long misses;
+
+    /** Commits evicted. */
+    private long evictions;
+}
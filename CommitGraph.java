@@ -0,0 +1,411 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** The commit graph: one fixed-width record per stored commit, read
+ * through a memory map so that history can be walked without reading
+ * and decoding commits.
+ *
+ * The file is MAGIC followed by the records. Each record is the 20-byte
+ * commit ID, the 4-byte positions of the records of its first and second
+ * parents (NONE if absent), its 4-byte generation number (1 for a root
+ * commit, otherwise one more than the greatest of its parents'), and its
+ * 8-byte time in milliseconds since the epoch. A commit's parents always
+ * come before it. The file is extended as commits are written, and
+ * rebuilt from the commit store whenever it is missing or damaged.
+ * Commits are found in it through a CommitIndex kept beside it.
+ * @author Daniel Bostwick */
+public class CommitGraph {
+
+    /** Start of the commit-graph file: three magic bytes and the format
+     * version. */
+    static final byte[] MAGIC = {'G', 'C', 'G', 1};
+
+    /** Size of one record. */
+    static final int RECORD = Utils.ID_BYTES + 3 * Integer.BYTES + Long.BYTES;
+
+    /** Parent position of a commit without that parent. */
+    static final int NONE = -1;
+
+    /** Gets the commit graph, rebuilding it first if needed.
+     * @return The graph. */
+    static synchronized CommitGraph get() {
+        if (current == null) {
+            current = open(GRAPHFILE);
+            if (current == null) {
+                rebuild();
+                current = open(GRAPHFILE);
+            }
+        }
+        return current;
+    }
+
+    /** Gets one commit graph holding all the given commits, rebuilding
+     * the graph if commits were stored without being added to it.
+     * @param shas The SHA-1 IDs of stored commits.
+     * @return The graph. */
+    static synchronized CommitGraph containing(String... shas) {
+        CommitGraph graph = get();
+        for (String sha : shas) {
+            if (graph.position(sha) == NONE) {
+                rebuild();
+                return get();
+            }
+        }
+        return graph;
+    }
+
+    /** Forgets the graph as last opened, so that get() maps the file
+     * again. */
+    static synchronized void reload() {
+        current = null;
+    }
+
+    /** Maps a commit-graph file.
+     * @param file The file.
+     * @return The graph, or null if the file is missing or damaged. */
+    static CommitGraph open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            long size = channel.size();
+            if (size < MAGIC.length || (size - MAGIC.length) % RECORD != 0) {
+                return null;
+            }
+            MappedByteBuffer map =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] magic = new byte[MAGIC.length];
+            map.get(0, magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                return null;
+            }
+            return new CommitGraph(file, map,
+                    (int) ((size - MAGIC.length) / RECORD));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rewrites the commit-graph file from every commit in the store. */
+    static synchronized void rebuild() {
+        HashMap<String, Integer> positions = new HashMap<>();
+        ArrayList<Integer> generations = new ArrayList<>();
+        try {
+            File temp = File.createTempFile("graph", ".tmp", Objects.GITLET);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            temp.toPath()), Utils.CHUNK_SIZE))) {
+                out.write(MAGIC);
+                for (String start : CommitStore.ids()) {
+                    ArrayDeque<String> pending = new ArrayDeque<>();
+                    pending.push(start);
+                    while (!pending.isEmpty()) {
+                        String sha = pending.peek();
+                        if (positions.containsKey(sha)) {
+                            pending.pop();
+                            continue;
+                        }
+                        Commit commit = CommitStore.read(sha);
+                        boolean ready = true;
+                        for (String parent : parents(commit)) {
+                            if (parent != null && CommitStore.contains(parent)
+                                    && !positions.containsKey(parent)) {
+                                pending.push(parent);
+                                ready = false;
+                            }
+                        }
+                        if (ready) {
+                            pending.pop();
+                            int[] parents = new int[2];
+                            int generation = 1;
+                            for (int i = 0; i < 2; i += 1) {
+                                Integer pos =
+                                        positions.get(parents(commit)[i]);
+                                parents[i] = pos == null ? NONE : pos;
+                                if (pos != null) {
+                                    generation = Math.max(generation,
+                                            generations.get(pos) + 1);
+                                }
+                            }
+                            positions.put(sha, generations.size());
+                            generations.add(generation);
+                            writeRecord(out, sha, parents, generation,
+                                    commit.getEpochMillis());
+                        }
+                    }
+                }
+            }
+            Files.move(temp.toPath(), GRAPHFILE.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        indexFile(GRAPHFILE).delete();
+        current = null;
+    }
+
+    /** Adds a newly written commit to the end of the commit-graph file.
+     * If the file does not exist yet or does not hold the commit's
+     * parents, it is instead rebuilt when next needed.
+     * @param commit The commit. */
+    static synchronized void add(Commit commit) {
+        if (!GRAPHFILE.isFile()) {
+            return;
+        }
+        CommitGraph graph = get();
+        if (graph.position(commit.getCommitSHA()) != NONE) {
+            return;
+        }
+        int[] parents = new int[2];
+        int generation = 1;
+        for (int i = 0; i < 2; i += 1) {
+            String parent = parents(commit)[i];
+            parents[i] = parent == null ? NONE : graph.position(parent);
+            if (parent != null && parents[i] == NONE) {
+                GRAPHFILE.delete();
+                indexFile(GRAPHFILE).delete();
+                current = null;
+                return;
+            }
+            if (parents[i] != NONE) {
+                generation = Math.max(generation,
+                        graph.generation(parents[i]) + 1);
+            }
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.put(Utils.idBytes(commit.getCommitSHA()));
+        record.putInt(parents[0]).putInt(parents[1]).putInt(generation);
+        record.putLong(commit.getEpochMillis());
+        record.flip();
+        try (FileChannel channel = FileChannel.open(GRAPHFILE.toPath(),
+                StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        current = open(GRAPHFILE);
+    }
+
+    /** Writes one record.
+     * @param out The commit-graph file being written.
+     * @param sha The commit's SHA-1 ID.
+     * @param parents The positions of its parents' records.
+     * @param generation Its generation number.
+     * @param millis Its time. */
+    static void writeRecord(DataOutputStream out, String sha,
+                            int[] parents, int generation, long millis)
+            throws IOException {
+        out.write(Utils.idBytes(sha));
+        out.writeInt(parents[0]);
+        out.writeInt(parents[1]);
+        out.writeInt(generation);
+        out.writeLong(millis);
+    }
+
+    /** Gets the parents of a commit.
+     * @param commit The commit.
+     * @return Its first and second parent IDs, either of them null. */
+    private static String[] parents(Commit commit) {
+        return new String[] {commit.getParent(), commit.getSecondParent()};
+    }
+
+    /** Gets the file holding the CommitIndex of a commit-graph file.
+     * @param graphFile The commit-graph file.
+     * @return The index file beside it. */
+    static File indexFile(File graphFile) {
+        return new File(graphFile.getPath() + ".idx");
+    }
+
+    /** CommitGraph Constructor.
+     * @param graphFile The commit-graph file.
+     * @param map The mapped commit-graph file.
+     * @param records The number of records in it. */
+    private CommitGraph(File graphFile, MappedByteBuffer map, int records) {
+        this.file = graphFile;
+        this.map = map;
+        this.count = records;
+    }
+
+    /** Gets the number of commits in the graph.
+     * @return count. */
+    int size() {
+        return count;
+    }
+
+    /** Gets the position of a commit's record.
+     * @param sha The commit's SHA-1 ID.
+     * @return The position, or NONE if the graph does not hold it. */
+    int position(String sha) {
+        return index().position(sha);
+    }
+
+    /** Lists the commits whose IDs start with a prefix.
+     * @param prefix Leading hexadecimal digits of a commit ID.
+     * @param limit The most IDs wanted.
+     * @return Up to LIMIT matching IDs. */
+    List<String> ids(String prefix, int limit) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int i : index().positions(prefix, limit)) {
+            result.add(id(i));
+        }
+        return result;
+    }
+
+    /** Gets the index of the graph's commit IDs, opening it on first
+     * use.
+     * @return The index. */
+    private synchronized CommitIndex index() {
+        if (index == null) {
+            index = CommitIndex.open(this, indexFile(file));
+        }
+        return index;
+    }
+
+    /** Gets the commit ID of record I.
+     * @param i A position.
+     * @return The hexadecimal ID. */
+    String id(int i) {
+        return Utils.hex(idBytes(i));
+    }
+
+    /** Gets the commit ID of record I.
+     * @param i A position.
+     * @return The 20-byte ID. */
+    byte[] idBytes(int i) {
+        byte[] id = new byte[Utils.ID_BYTES];
+        map.get(offset(i), id);
+        return id;
+    }
+
+    /** Gets a parent of the commit of record I.
+     * @param i A position.
+     * @param which 0 for the first parent, 1 for the second.
+     * @return The parent's position, or NONE. */
+    int parent(int i, int which) {
+        return map.getInt(offset(i) + Utils.ID_BYTES + which * Integer.BYTES);
+    }
+
+    /** Gets the generation number of the commit of record I.
+     * @param i A position.
+     * @return The generation number. */
+    int generation(int i) {
+        return map.getInt(offset(i) + Utils.ID_BYTES + 2 * Integer.BYTES);
+    }
+
+    /** Gets the time of the commit of record I.
+     * @param i A position.
+     * @return Milliseconds since the epoch. */
+    long time(int i) {
+        return map.getLong(offset(i) + Utils.ID_BYTES + 3 * Integer.BYTES);
+    }
+
+    /** Checks whether one commit is an ancestor of (or is) another.
+     * Commits with a generation number no greater than ANCESTOR's are
+     * never searched past, since none of their ancestors can be it.
+     * @param ancestor The position of the possible ancestor.
+     * @param descendant The position of the possible descendant.
+     * @return True if ANCESTOR is reachable from DESCENDANT. */
+    boolean isAncestor(int ancestor, int descendant) {
+        int floor = generation(ancestor);
+        boolean[] seen = new boolean[count];
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.push(descendant);
+        while (!pending.isEmpty()) {
+            int i = pending.pop();
+            if (i == ancestor) {
+                return true;
+            }
+            if (seen[i] || generation(i) <= floor) {
+                continue;
+            }
+            seen[i] = true;
+            for (int which = 0; which < 2; which += 1) {
+                if (parent(i, which) != NONE) {
+                    pending.push(parent(i, which));
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Finds the split point of two commits: a common ancestor of both
+     * that is not an ancestor of any other common ancestor. Since every
+     * commit's record follows its parents', the records are scanned
+     * backwards from the later of the two, marking each commit with which
+     * of the two it is reachable from. Every descendant of a commit is
+     * scanned before it, so the first commit reachable from both is a
+     * latest common ancestor, and the scan stops there or as soon as no
+     * marked commits are left to scan.
+     * @param a The position of one commit.
+     * @param b The position of the other.
+     * @return The position of the split point, or NONE if the commits
+     *         have no common ancestor. */
+    int splitPoint(int a, int b) {
+        byte[] reachedFrom = new byte[Math.max(a, b) + 1];
+        reachedFrom[a] |= 1;
+        reachedFrom[b] |= 2;
+        int pending = a == b ? 1 : 2;
+        for (int i = Math.max(a, b); i >= 0 && pending > 0; i -= 1) {
+            byte from = reachedFrom[i];
+            if (from == 3) {
+                return i;
+            } else if (from == 0) {
+                continue;
+            }
+            pending -= 1;
+            for (int which = 0; which < 2; which += 1) {
+                int p = parent(i, which);
+                if (p != NONE) {
+                    if (reachedFrom[p] == 0) {
+                        pending += 1;
+                    }
+                    reachedFrom[p] |= from;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /** Gets the byte position of record I.
+     * @param i A position.
+     * @return The byte position. */
+    private static int offset(int i) {
+        return MAGIC.length + i * RECORD;
+    }
+
+    /** The commit-graph file. */
+    static final File GRAPHFILE = Utils.join(Objects.GITLET, "commit-graph");
+
+    /** The graph as last opened by this process. */
+    private static CommitGraph current;
+
+    /** The commit-graph file. */
+    private final File file;
+
+    /** The mapped commit-graph file. */
+    private final MappedByteBuffer map;
+
+    /** Number of records. */
+    private final int count;
+
+    /** The index of commit IDs, once opened. */
+    private CommitIndex index;
+}
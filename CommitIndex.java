@@ -0,0 +1,335 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Sorted index of the commit IDs in a CommitGraph, so that full and
+ * abbreviated IDs are found by binary search instead of by listing
+ * every commit.
+ *
+ * The file is MAGIC, the 4-byte number N of graph records it covers,
+ * a fan-out table of 256 4-byte counts, the Bth being the number of
+ * IDs whose first byte is at most B, and then N entries sorted by ID,
+ * each the 20-byte commit ID and the 4-byte position of its graph
+ * record. Graph records appended since the index was written are
+ * searched directly; the index is rewritten once they outnumber
+ * MIN_TAIL and an eighth of the index.
+ * @author Daniel Bostwick */
+public class CommitIndex {
+
+    /** Start of the index file: three magic bytes and the format
+     * version. */
+    static final byte[] MAGIC = {'G', 'C', 'I', 1};
+
+    /** Number of fan-out table entries, one per possible first byte. */
+    static final int FANOUT = 256;
+
+    /** Size of one entry. */
+    static final int ENTRY = Utils.ID_BYTES + Integer.BYTES;
+
+    /** Position of the first entry. */
+    static final int HEADER = MAGIC.length + Integer.BYTES
+            + FANOUT * Integer.BYTES;
+
+    /** Unindexed graph records always tolerated before a rewrite. */
+    static final int MIN_TAIL = 1024;
+
+    /** Opens the index of a commit graph, writing it first if it is
+     * missing, damaged, or too far behind the graph.
+     * @param graph The commit graph.
+     * @param file The index file.
+     * @return The index. */
+    static CommitIndex open(CommitGraph graph, File file) {
+        CommitIndex index = map(graph, file);
+        if (index == null
+                || graph.size() - index.count
+                   > Math.max(MIN_TAIL, index.count / 8)) {
+            write(graph, file);
+            index = map(graph, file);
+        }
+        return index;
+    }
+
+    /** Maps an index file.
+     * @param graph The commit graph it indexes.
+     * @param file The index file.
+     * @return The index, or null if the file is missing, damaged, or
+     *         does not match GRAPH. */
+    private static CommitIndex map(CommitGraph graph, File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            long size = channel.size();
+            if (size < HEADER) {
+                return null;
+            }
+            MappedByteBuffer map =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] magic = new byte[MAGIC.length];
+            map.get(0, magic);
+            int count = map.getInt(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC) || count > graph.size()
+                    || size != HEADER + (long) count * ENTRY) {
+                return null;
+            }
+            CommitIndex index = new CommitIndex(graph, map, count);
+            if (count > 0 && !(index.agrees(0) && index.agrees(count - 1))) {
+                return null;
+            }
+            return index;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rewrites the index file to cover every record of a graph. Each
+     * record is sorted as one long holding the first 33 bits of its ID
+     * above its 31-bit position; the rare runs of equal leading bits are
+     * then sorted by whole ID.
+     * @param graph The commit graph.
+     * @param file The index file. */
+    static void write(CommitGraph graph, File file) {
+        int count = graph.size();
+        byte[][] ids = new byte[count][];
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i += 1) {
+            ids[i] = graph.idBytes(i);
+            keys[i] = (leading(ids[i]) << 31 | i) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            order[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        for (int i = 0, j; i < count; i = j) {
+            for (j = i + 1; j < count
+                    && (keys[j] ^ keys[i]) >>> 31 == 0; j += 1) {
+                continue;
+            }
+            if (j - i > 1) {
+                Integer[] run = new Integer[j - i];
+                for (int k = i; k < j; k += 1) {
+                    run[k - i] = order[k];
+                }
+                Arrays.sort(run,
+                        (a, b) -> Arrays.compareUnsigned(ids[a], ids[b]));
+                for (int k = i; k < j; k += 1) {
+                    order[k] = run[k - i];
+                }
+            }
+        }
+        int[] fanout = new int[FANOUT];
+        for (byte[] id : ids) {
+            fanout[id[0] & 0xff] += 1;
+        }
+        for (int b = 1; b < FANOUT; b += 1) {
+            fanout[b] += fanout[b - 1];
+        }
+        try {
+            File temp = File.createTempFile("index", ".tmp",
+                    file.getAbsoluteFile().getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            temp.toPath()), Utils.CHUNK_SIZE))) {
+                out.write(MAGIC);
+                out.writeInt(count);
+                for (int total : fanout) {
+                    out.writeInt(total);
+                }
+                for (int i : order) {
+                    out.write(ids[i]);
+                    out.writeInt(i);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** CommitIndex Constructor.
+     * @param commitGraph The graph indexed.
+     * @param map The mapped index file.
+     * @param entries The number of entries in it. */
+    private CommitIndex(CommitGraph commitGraph, MappedByteBuffer map,
+                        int entries) {
+        this.graph = commitGraph;
+        this.map = map;
+        this.count = entries;
+    }
+
+    /** Finds the graph records of the commits whose IDs start with a
+     * prefix.
+     * @param prefix Leading hexadecimal digits of a commit ID.
+     * @param limit The most records wanted.
+     * @return The positions of up to LIMIT matching records. */
+    List<Integer> positions(String prefix, int limit) {
+        ArrayList<Integer> result = new ArrayList<>();
+        byte[] key = parse(prefix);
+        if (key == null) {
+            return result;
+        }
+        int digits = prefix.length();
+        int lo = 0, hi = count;
+        if (digits >= 2) {
+            int first = key[0] & 0xff;
+            lo = first == 0 ? 0 : fanout(first - 1);
+            hi = fanout(first);
+        } else if (digits == 1) {
+            int first = key[0] & 0xf0;
+            lo = first == 0 ? 0 : fanout(first - 1);
+            hi = fanout(first + 0x0f);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(entry(mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && result.size() < limit
+                 && matches(entry(i), key, digits); i += 1) {
+            result.add(map.getInt(entry(i) + Utils.ID_BYTES));
+        }
+        for (int i = count; i < graph.size() && result.size() < limit;
+             i += 1) {
+            if (matches(graph.idBytes(i), key, digits)) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /** Finds the graph record of a commit.
+     * @param sha The commit's full SHA-1 ID.
+     * @return Its position, or CommitGraph.NONE if it is not in the
+     *         graph. */
+    int position(String sha) {
+        if (sha.length() != Utils.UID_LENGTH) {
+            return CommitGraph.NONE;
+        }
+        List<Integer> found = positions(sha, 1);
+        return found.isEmpty() ? CommitGraph.NONE : found.get(0);
+    }
+
+    /** Gets the first 33 bits of an ID.
+     * @param id A 20-byte ID.
+     * @return Those bits, as an unsigned number. */
+    private static long leading(byte[] id) {
+        long bits = 0;
+        for (int i = 0; i < 5; i += 1) {
+            bits = bits << 8 | (id[i] & 0xff);
+        }
+        return bits >>> 7;
+    }
+
+    /** Converts hexadecimal digits to bytes, an odd final digit filling
+     * the high half of the last byte.
+     * @param prefix The digits, in either case.
+     * @return The bytes, or null if PREFIX is not hexadecimal or is
+     *         longer than an ID. */
+    private static byte[] parse(String prefix) {
+        if (prefix.length() > Utils.UID_LENGTH) {
+            return null;
+        }
+        byte[] key = new byte[(prefix.length() + 1) / 2];
+        for (int i = 0; i < prefix.length(); i += 1) {
+            int digit = Character.digit(prefix.charAt(i), 16);
+            if (digit < 0) {
+                return null;
+            }
+            key[i / 2] |= (byte) (i % 2 == 0 ? digit << 4 : digit);
+        }
+        return key;
+    }
+
+    /** Compares the ID of an entry with a parsed prefix.
+     * @param pos The byte position of the entry.
+     * @param key The parsed prefix.
+     * @return The sign of the comparison of the ID's first bytes with
+     *         KEY. */
+    private int compare(int pos, byte[] key) {
+        for (int i = 0; i < key.length; i += 1) {
+            int diff = (map.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /** Checks whether the ID of an entry starts with a prefix.
+     * @param pos The byte position of the entry.
+     * @param key The parsed prefix.
+     * @param digits The number of hexadecimal digits in the prefix.
+     * @return True if it does. */
+    private boolean matches(int pos, byte[] key, int digits) {
+        byte[] id = new byte[key.length];
+        map.get(pos, id);
+        return matches(id, key, digits);
+    }
+
+    /** Checks whether an ID starts with a prefix.
+     * @param id The ID, or at least its first KEY.length bytes.
+     * @param key The parsed prefix.
+     * @param digits The number of hexadecimal digits in the prefix.
+     * @return True if it does. */
+    private static boolean matches(byte[] id, byte[] key, int digits) {
+        for (int i = 0; i < digits / 2; i += 1) {
+            if (id[i] != key[i]) {
+                return false;
+            }
+        }
+        return digits % 2 == 0
+                || (id[digits / 2] & 0xf0) == (key[digits / 2] & 0xf0);
+    }
+
+    /** Checks that an entry names the graph record it points to.
+     * @param i An entry.
+     * @return True if it does. */
+    private boolean agrees(int i) {
+        int position = map.getInt(entry(i) + Utils.ID_BYTES);
+        if (position < 0 || position >= graph.size()) {
+            return false;
+        }
+        byte[] id = new byte[Utils.ID_BYTES];
+        map.get(entry(i), id);
+        return Arrays.equals(id, graph.idBytes(position));
+    }
+
+    /** Gets an entry of the fan-out table.
+     * @param b A first byte.
+     * @return The number of IDs whose first byte is at most B. */
+    private int fanout(int b) {
+        return map.getInt(MAGIC.length + Integer.BYTES + b * Integer.BYTES);
+    }
+
+    /** Gets the byte position of entry I.
+     * @param i An entry.
+     * @return The byte position. */
+    private static int entry(int i) {
+        return HEADER + i * ENTRY;
+    }
+
+    /** The graph indexed. */
+    private final CommitGraph graph;
+
+    /** The mapped index file. */
+    private final MappedByteBuffer map;
+
+    /** Number of graph records covered. */
+    private final int count;
+}
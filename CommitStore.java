@@ -0,0 +1,252 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/** Content-addressed store holding every Commit as its own immutable
+ * object, filed under COMMIT/ab/cdef... by its SHA-1 ID until a repack
+ * moves it into a Pack.
+ * @author Daniel Bostwick */
+public class CommitStore {
+
+    /** Length of the fan-out directory names. */
+    static final int FANOUT = 2;
+
+    /** Cache in front of every read; sized by the gitlet.commitCacheSize
+     * system property. */
+    static final CommitCache CACHE = new CommitCache(
+            Integer.getInteger("gitlet.commitCacheSize",
+                    CommitCache.DEFAULT_SIZE));
+
+    /** Gets the file that holds the commit with the given ID.
+     * @param sha The full SHA-1 ID of the commit.
+     * @return The object file. */
+    static File objectFile(String sha) {
+        return Utils.join(Objects.COMMIT, sha.substring(0, FANOUT),
+                sha.substring(FANOUT));
+    }
+
+    /** Writes a commit into the store. Commits are immutable, so an
+     * existing object is never rewritten.
+     * @param commit The commit to be stored. */
+    static void write(Commit commit) {
+        File file = objectFile(commit.getCommitSHA());
+        if (file.exists()) {
+            return;
+        }
+        file.getParentFile().mkdir();
+        Utils.writeAtomic(file, commit.toBytes());
+        Journal.created(file);
+        CACHE.put(commit.getCommitSHA(), commit);
+        CommitGraph.add(commit);
+        MessageIndex.add(commit);
+    }
+
+    /** Reads a single commit from the store.
+     * @param sha The full SHA-1 ID of the commit.
+     * @return The commit, or null if there is no such commit. */
+    static Commit read(String sha) {
+        if (sha == null || sha.length() <= FANOUT) {
+            return null;
+        }
+        Commit commit = CACHE.get(sha);
+        if (commit != null) {
+            return commit;
+        }
+        File file = objectFile(sha);
+        if (file.isFile()) {
+            commit = Commit.fromBytes(Utils.readContents(file), sha);
+        } else {
+            byte[] packed = Pack.readBytes(sha);
+            if (packed == null) {
+                return null;
+            }
+            commit = Commit.fromBytes(packed, sha);
+        }
+        CACHE.put(sha, commit);
+        return commit;
+    }
+
+    /** Reads the stored form of a commit, loose or packed.
+     * @param sha The full SHA-1 ID of the commit.
+     * @return The stored commit, or null if there is no such commit. */
+    static byte[] readBytes(String sha) {
+        File file = objectFile(sha);
+        if (file.isFile()) {
+            return Utils.readContents(file);
+        }
+        return Pack.readBytes(sha);
+    }
+
+    /** Checks whether a commit is in the store.
+     * @param sha The full SHA-1 ID of the commit.
+     * @return True if the commit exists. */
+    static boolean contains(String sha) {
+        return sha != null && sha.length() > FANOUT
+                && (objectFile(sha).isFile() || Pack.contains(sha));
+    }
+
+    /** Expands an abbreviated commit ID by binary search in the commit
+     * graph's index. Only if the graph holds no match, as for commits
+     * stored by older versions, is the fan-out directory listed.
+     * @param prefix A full or abbreviated commit ID.
+     * @return The full ID, or null if no commit starts with PREFIX. */
+    static String resolve(String prefix) {
+        List<String> matches = CommitGraph.get().ids(prefix, 2);
+        if (matches.isEmpty()) {
+            matches = ids(prefix);
+        }
+        if (matches.size() > 1) {
+            throw Utils.error("Commit ID %s is ambiguous.", prefix);
+        }
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /** Lists the IDs of every stored commit, in sorted order.
+     * @return The commit IDs. */
+    static List<String> ids() {
+        return ids("");
+    }
+
+    /** Lists the IDs of every stored commit starting with PREFIX.
+     * @param prefix Leading hex digits of the wanted IDs.
+     * @return The matching commit IDs, in sorted order. */
+    static List<String> ids(String prefix) {
+        TreeSet<String> result = Pack.ids(prefix, Pack.COMMIT);
+        String[] dirs = Objects.COMMIT.list();
+        if (dirs == null) {
+            return new ArrayList<>(result);
+        }
+        for (String dir : dirs) {
+            if (dir.length() != FANOUT
+                    || !(dir.startsWith(prefix) || prefix.startsWith(dir))) {
+                continue;
+            }
+            List<String> names =
+                    Utils.plainFilenamesIn(Utils.join(Objects.COMMIT, dir));
+            for (String name : names) {
+                String sha = dir + name;
+                if (sha.startsWith(prefix)) {
+                    result.add(sha);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Iterates over the IDs of every stored commit without listing them
+     * all at once: packs are read one index entry at a time and loose
+     * commits one fan-out directory at a time, so memory use does not
+     * grow with the number of commits.
+     * @return The commit IDs, packed ones first. */
+    static Iterable<String> all() {
+        return IdIterator::new;
+    }
+
+    /** Iterator over the stored commit IDs; see all(). */
+    private static class IdIterator implements Iterator<String> {
+
+        /** IdIterator Constructor. */
+        IdIterator() {
+            packs = Pack.all();
+            String[] names = Objects.COMMIT.list();
+            dirs = names == null ? new String[0] : names;
+            Arrays.sort(dirs);
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            advance();
+            return result;
+        }
+
+        /** Finds the next ID, or sets next to null if there is none. */
+        private void advance() {
+            while (pack < packs.size()) {
+                Pack current = packs.get(pack);
+                while (position < current.size()) {
+                    position += 1;
+                    if (current.typeMatches(position - 1, Pack.COMMIT)) {
+                        next = current.idAt(position - 1);
+                        return;
+                    }
+                }
+                pack += 1;
+                position = 0;
+            }
+            while (true) {
+                while (names != null && position < names.size()) {
+                    String sha = dirs[dir - 1] + names.get(position);
+                    position += 1;
+                    if (!Pack.contains(sha)) {
+                        next = sha;
+                        return;
+                    }
+                }
+                if (dir == dirs.length) {
+                    next = null;
+                    return;
+                }
+                names = dirs[dir].length() == FANOUT
+                        ? Utils.plainFilenamesIn(
+                                Utils.join(Objects.COMMIT, dirs[dir]))
+                        : null;
+                dir += 1;
+                position = 0;
+            }
+        }
+
+        /** The packs to read. */
+        private final List<Pack> packs;
+
+        /** Names of the entries of the commit directory, in sorted
+         * order. */
+        private final String[] dirs;
+
+        /** Index in packs of the pack being read. */
+        private int pack;
+
+        /** Number of entries already read from the current pack or
+         * fan-out directory. */
+        private int position;
+
+        /** Index in dirs just past the fan-out directory being read. */
+        private int dir;
+
+        /** Names of the commits in the fan-out directory being read. */
+        private List<String> names;
+
+        /** The ID to be returned next, or null at the end. */
+        private String next;
+    }
+
+    /** One-shot migration from the old single commitsMap.txt file to
+     * per-commit objects. Does nothing if the map is already gone. */
+    static void migrate() {
+        if (!Objects.COMMITSMAP.exists()) {
+            return;
+        }
+        LinkedHM commits = LinkedHM.fromBytes(
+                Utils.readContents(Objects.COMMITSMAP));
+        for (Commit commit : commits.getCommits().values()) {
+            write(commit);
+        }
+        Journal.commit();
+        Objects.COMMITSMAP.delete();
+    }
+}
@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/** Repository-level settings, read from the key=value file
+ * .gitlet/config. Missing keys take their defaults.
+ * @author Daniel Bostwick */
+public class Config {
+
+    /** Gets a setting.
+     * @param key The setting's name.
+     * @param defaultValue The value used if the setting is absent.
+     * @return The setting's value. */
+    static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue).trim();
+    }
+
+    /** Gets an integer setting.
+     * @param key The setting's name.
+     * @param defaultValue The value used if the setting is absent.
+     * @return The setting's value. */
+    static int getInt(String key, int defaultValue) {
+        String value = load().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s in config: %s", key, value);
+        }
+    }
+
+    /** Forgets the settings as last read, so that they are read from
+     * CONFIGFILE again. */
+    static synchronized void reload() {
+        settings = null;
+    }
+
+    /** Loads the config file on first use.
+     * @return The settings. */
+    private static synchronized Properties load() {
+        if (settings == null) {
+            settings = new Properties();
+            if (CONFIGFILE.isFile()) {
+                try (InputStream in = new FileInputStream(CONFIGFILE)) {
+                    settings.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return settings;
+    }
+
+    /** The repository's config file. */
+    static final File CONFIGFILE = Utils.join(Objects.GITLET, "config");
+
+    /** The settings read from CONFIGFILE. */
+    private static Properties settings;
+}
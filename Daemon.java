@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A long-running Gitlet that serves commands sent by Client over a
+ * Unix domain socket, so that scripts running many commands pay for JVM
+ * startup, class loading and JIT compilation once, and reuse the
+ * commits and trees already read, the mapped commit graph and indexes,
+ * the opened packs, the stat index and the config.
+ *
+ * Started by "gitlet daemon" in the repository's root directory and
+ * stopped by "gitlet daemon stop". Commands are run one at a time by
+ * Main.execute, holding the repository lock as usual, with their
+ * standard output and error sent back to the client, so the output is
+ * exactly that of a one-shot Main. Before each command, the daemon
+ * compares the sizes and modification times of .gitlet's mutable
+ * files with those it saw after its last command; if another process
+ * has changed any of them, everything read from them is reloaded.
+ * Commits and trees are immutable and stay cached.
+ *
+ * A request is the client's working directory, a 4-byte count of
+ * arguments and the arguments, each string as by
+ * DataOutputStream.writeUTF. The reply is a series of frames, each a
+ * type byte and, for OUT and ERR, a 4-byte length and that many bytes
+ * of output; the END frame finishes it.
+ * @author Daniel Bostwick */
+public class Daemon {
+
+    /** Frame holding standard output. */
+    static final int OUT = 1;
+
+    /** Frame holding standard error. */
+    static final int ERR = 2;
+
+    /** Frame ending the reply. */
+    static final int END = 0;
+
+    /** Serves commands until stopped.
+     * @param args "daemon", or "daemon stop" to stop a running daemon. */
+    static void serve(String[] args) throws IOException {
+        if (!Objects.GITLET.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        if (args.length > 1 && args[1].equals("stop")) {
+            if (!Client.forward(args)) {
+                System.out.println("No Gitlet daemon is running.");
+            }
+            return;
+        }
+        if (running()) {
+            System.out.println("A Gitlet daemon is already running.");
+            return;
+        }
+        SOCKETFILE.delete();
+        try (ServerSocketChannel server =
+                     ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKETFILE.toPath()));
+            SOCKETFILE.deleteOnExit();
+            seen = fingerprint();
+            boolean stopping = false;
+            while (!stopping) {
+                try (SocketChannel client = server.accept()) {
+                    stopping = handle(client);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } finally {
+            SOCKETFILE.delete();
+        }
+    }
+
+    /** Checks whether a daemon is answering on SOCKETFILE.
+     * @return True if one is. */
+    private static boolean running() {
+        if (!SOCKETFILE.exists()) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(
+                UnixDomainSocketAddress.of(SOCKETFILE.toPath()))) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Runs one client's command and sends back its output.
+     * @param client The connection.
+     * @return True if the client asked the daemon to stop. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+                Channels.newInputStream(client));
+        String cwd = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), Utils.CHUNK_SIZE));
+        Frames outFrames = new Frames(reply, OUT);
+        PrintStream out = new PrintStream(outFrames, false,
+                StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new Frames(reply, ERR), false,
+                StandardCharsets.UTF_8);
+        boolean stop = args.length > 0 && args[0].equals("daemon");
+        if (!new File(cwd).getCanonicalFile()
+                .equals(Objects.CWD.getCanonicalFile())) {
+            err.println("The Gitlet daemon serves " + Objects.CWD
+                    + ", not " + cwd + ".");
+        } else if (stop) {
+            out.println("Gitlet daemon stopped.");
+        } else {
+            run(args, out, err, outFrames);
+        }
+        out.flush();
+        err.flush();
+        reply.writeByte(END);
+        reply.flush();
+        return stop;
+    }
+
+    /** Runs a command with its output sent to OUT and ERR.
+     * @param args The command and its operands.
+     * @param out Where standard output goes.
+     * @param err Where standard error goes.
+     * @param rawOut The stream under OUT, for Utils.stdout. */
+    private static void run(String[] args, PrintStream out,
+                            PrintStream err, OutputStream rawOut) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(out);
+        System.setErr(err);
+        Utils.setStdout(rawOut);
+        try {
+            List<String> now = fingerprint();
+            if (!now.equals(seen)) {
+                reload();
+            }
+            Main.execute(args);
+        } catch (IOException | RuntimeException excp) {
+            Journal.abort();
+            reload();
+            excp.printStackTrace(new PrintWriter(err, true));
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+            Utils.setStdout(null);
+            seen = fingerprint();
+        }
+    }
+
+    /** Forgets everything read from .gitlet's mutable files. */
+    private static void reload() {
+        CommitGraph.reload();
+        Pack.reload();
+        Index.reload();
+        Config.reload();
+    }
+
+    /** Lists the size and modification time of each file in .gitlet
+     * that the daemon keeps what it read from, and of each pack.
+     * @return The list. */
+    private static List<String> fingerprint() {
+        ArrayList<String> result = new ArrayList<>();
+        for (File file : WATCHED) {
+            result.add(file.length() + " " + file.lastModified());
+        }
+        String[] packs = Pack.PACKS.list();
+        if (packs != null) {
+            Arrays.sort(packs);
+            for (String name : packs) {
+                File file = new File(Pack.PACKS, name);
+                result.add(name + " " + file.length() + " "
+                        + file.lastModified());
+            }
+        }
+        return result;
+    }
+
+    /** Output stream that wraps what is written to it in frames of one
+     * type. Writing to it throws IOException once the client has gone,
+     * as writing to a closed standard output would. */
+    private static class Frames extends OutputStream {
+
+        /** Frames Constructor.
+         * @param reply Where frames are written.
+         * @param type The type of frame. */
+        Frames(DataOutputStream reply, int type) {
+            this.reply = reply;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            reply.writeByte(type);
+            reply.writeInt(len);
+            reply.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            reply.flush();
+        }
+
+        /** Where frames are written. */
+        private final DataOutputStream reply;
+
+        /** The type of frame. */
+        private final int type;
+    }
+
+    /** The socket clients connect to. */
+    static final File SOCKETFILE = Client.SOCKETFILE;
+
+    /** The files whose changes make the daemon reload. Branch heads and
+     * the staging area are read afresh by every command anyway. */
+    private static final File[] WATCHED = {CommitGraph.GRAPHFILE,
+        CommitGraph.indexFile(CommitGraph.GRAPHFILE), Index.INDEXFILE,
+        Config.CONFIGFILE};
+
+    /** The fingerprint of .gitlet after the last command. */
+    private static List<String> seen;
+}
@@ -0,0 +1,357 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/** Persistent stat cache of the working directory, kept next to the
+ * staging area. Records the size, modification time, inode and last
+ * computed blob SHA-1 of each file so that unchanged files are only
+ * stat'ed rather than read and rehashed.
+ * @author Daniel Bostwick */
+public class Index implements Serializable {
+
+    /** Files modified this close (in milliseconds) to the moment they
+     * were hashed may change again within the file system's timestamp
+     * granularity, so their entries are never trusted. */
+    static final long RACY_WINDOW = 2000;
+
+    /** Index Constructor. */
+    public Index() {
+        entries = new HashMap<>();
+    }
+
+    /** Gets the index for this command, loading it on first use. An
+     * index that cannot be read, such as one written by an incompatible
+     * version, is only a cache, and is started afresh.
+     * @return The index. */
+    static synchronized Index get() {
+        if (current == null) {
+            if (INDEXFILE.isFile()) {
+                try {
+                    current = Utils.readObject(INDEXFILE, Index.class);
+                    current.memo = new HashMap<>();
+                } catch (IllegalArgumentException excp) {
+                    current = new Index();
+                }
+            } else {
+                current = new Index();
+            }
+        }
+        return current;
+    }
+
+    /** Forgets the index as last read, so that get() reads INDEXFILE
+     * again. */
+    static synchronized void reload() {
+        current = null;
+    }
+
+    /** Starts a command, forgetting the hashes memoized by the one
+     * before, which a daemon may have run. */
+    static synchronized void begin() {
+        if (current != null) {
+            current.memo = new HashMap<>();
+        }
+    }
+
+    /** Writes the index back to disk if any entry changed. */
+    static synchronized void flush() {
+        if (current != null && current.dirty
+                && Objects.STAGING_AREA.isDirectory()) {
+            synchronized (current) {
+                current.dirty = false;
+                Utils.writeObject(INDEXFILE, current);
+            }
+        }
+    }
+
+    /** Gets the blob SHA-1 of FILE, reusing the recorded value when the
+     * file's size, modification time and inode are unchanged. Safe to
+     * call from several threads; files are hashed outside the lock.
+     * @param file A file in the working directory.
+     * @return The blob SHA-1 ID of FILE. */
+    public String sha(File file) {
+        return hash(file, false);
+    }
+
+    /** Gets the blob SHA-1 of FILE like sha(), and makes sure its contents
+     * are in the blob store, hashing and copying them in one pass if they
+     * are not.
+     * @param file A file in the working directory.
+     * @return The blob SHA-1 ID of FILE. */
+    public String store(File file) {
+        return hash(file, true);
+    }
+
+    /** Gets the blob SHA-1 of FILE, reusing recorded values when possible.
+     * @param file A file in the working directory.
+     * @param store True if the contents must also be in the blob store.
+     * @return The blob SHA-1 ID of FILE. */
+    private String hash(File file, boolean store) {
+        BasicFileAttributes attrs = attributes(file);
+        String key = Objects.relativePath(file);
+        if (attrs == null || !attrs.isRegularFile()) {
+            forget(key);
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        String memoKey = canonicalPath(file) + "|" + size + "|" + mtime;
+        String inode = String.valueOf(attrs.fileKey());
+        String known = lookup(key, memoKey, size, mtime, inode);
+        if (known != null && (!store || BlobStore.contains(known))) {
+            return known;
+        }
+        String sha;
+        if (store) {
+            sha = BlobStore.store(file);
+        } else {
+            sha = Utils.sha1File(file.getName(), file);
+        }
+        Entry fresh = new Entry();
+        fresh.size = size;
+        fresh.mtime = mtime;
+        fresh.inode = inode;
+        fresh.sha = sha;
+        fresh.racy = System.currentTimeMillis() - mtime < RACY_WINDOW;
+        record(key, memoKey, fresh);
+        return sha;
+    }
+
+    /** Gets the blob SHA-1 of FILE if its recorded entry proves it
+     * unchanged, without ever reading it.
+     * @param file A file in the working directory.
+     * @return The blob SHA-1 ID of FILE, or null if it would have to be
+     *         hashed or is not a normal file. */
+    public String cached(File file) {
+        BasicFileAttributes attrs = attributes(file);
+        if (attrs == null || !attrs.isRegularFile()) {
+            return null;
+        }
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        return lookup(Objects.relativePath(file),
+                canonicalPath(file) + "|" + size + "|" + mtime, size, mtime,
+                String.valueOf(attrs.fileKey()));
+    }
+
+    /** Gets the blob SHA-1 of every working file among PATHS whose
+     * recorded entry proves it unchanged, as cached() does for one file.
+     * @param paths Paths relative to the working directory.
+     * @return Blob SHA-1 IDs by path, for those files alone. */
+    public Map<String, String> cachedAll(Collection<String> paths) {
+        HashMap<String, String> hashes = new HashMap<>();
+        for (String path : paths) {
+            String sha = cached(Utils.join(Objects.CWD, path));
+            if (sha != null) {
+                hashes.put(path, sha);
+            }
+        }
+        return hashes;
+    }
+
+    /** Gets the blob SHA-1 of many working files at once, hashing them in
+     * parallel on a work-stealing pool.
+     * @param paths Paths relative to the working directory.
+     * @param threads The number of hashing threads; 1 hashes them all on
+     *                the calling thread.
+     * @return Blob SHA-1 IDs by path. */
+    public Map<String, String> shaAll(Collection<String> paths,
+                                      int threads) {
+        return hashAll(paths, threads, false);
+    }
+
+    /** Gets the blob SHA-1 of many working files at once like shaAll(),
+     * and makes sure their contents are in the blob store, as store()
+     * does for one file.
+     * @param paths Paths relative to the working directory.
+     * @param threads The number of hashing threads; 1 hashes them all on
+     *                the calling thread.
+     * @return Blob SHA-1 IDs by path. */
+    public Map<String, String> storeAll(Collection<String> paths,
+                                        int threads) {
+        return hashAll(paths, threads, true);
+    }
+
+    /** Hashes many working files for shaAll() and storeAll().
+     * @param paths Paths relative to the working directory.
+     * @param threads The number of hashing threads.
+     * @param store True if the contents must also be in the blob store.
+     * @return Blob SHA-1 IDs by path. */
+    private Map<String, String> hashAll(Collection<String> paths,
+                                        int threads, boolean store) {
+        ConcurrentHashMap<String, String> hashes = new ConcurrentHashMap<>();
+        if (threads <= 1 || paths.size() <= 1) {
+            for (String path : paths) {
+                hashes.put(path, hash(Utils.join(Objects.CWD, path), store));
+            }
+            return hashes;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> paths.parallelStream().forEach(path ->
+                    hashes.put(path, hash(Utils.join(Objects.CWD, path),
+                            store)))).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while hashing files.");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        return hashes;
+    }
+
+    /** Finds a SHA-1 already known for a file, first in this command's
+     * memo and then in the recorded entries.
+     * @param key The file's index key.
+     * @param memoKey The file's memo key.
+     * @param size The file's size.
+     * @param mtime The file's modification time.
+     * @param inode The file's key.
+     * @return The SHA-1 ID, or null if the file must be hashed. */
+    private synchronized String lookup(String key, String memoKey,
+                                       long size, long mtime,
+                                       String inode) {
+        String memoized = memo.get(memoKey);
+        if (memoized != null) {
+            return memoized;
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.racy && entry.size == size
+                && entry.mtime == mtime && entry.inode.equals(inode)) {
+            served += 1;
+            memo.put(memoKey, entry.sha);
+            return entry.sha;
+        }
+        return null;
+    }
+
+    /** Records a freshly computed entry.
+     * @param key The file's index key.
+     * @param memoKey The file's memo key.
+     * @param fresh The new entry. */
+    private synchronized void record(String key, String memoKey,
+                                     Entry fresh) {
+        rehashed += 1;
+        bytesHashed += fresh.size;
+        memo.put(memoKey, fresh.sha);
+        entries.put(key, fresh);
+        dirty = true;
+    }
+
+    /** Drops the entry of a file that no longer exists.
+     * @param key The file's index key. */
+    private synchronized void forget(String key) {
+        if (entries.remove(key) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Reads the stat data of FILE.
+     * @param file A file.
+     * @return Its attributes, or null if it cannot be read. */
+    private static BasicFileAttributes attributes(File file) {
+        try {
+            return Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Gets the canonical path of FILE, falling back to its absolute
+     * path if it cannot be resolved.
+     * @param file A file.
+     * @return The path used as memo key. */
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException excp) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /** Zeroes the counters below, as each command starts. */
+    static synchronized void resetCounters() {
+        if (current != null) {
+            synchronized (current) {
+                current.rehashed = 0;
+                current.served = 0;
+                current.bytesHashed = 0;
+            }
+        }
+    }
+
+    /** Gets the number of files hashed by this process.
+     * @return rehashed. */
+    static long getRehashed() {
+        return current == null ? 0 : current.rehashed;
+    }
+
+    /** Gets the number of hashes served from recorded entries.
+     * @return served. */
+    static long getServed() {
+        return current == null ? 0 : current.served;
+    }
+
+    /** Gets the number of file content bytes hashed by this process.
+     * @return bytesHashed. */
+    static long getBytesHashed() {
+        return current == null ? 0 : current.bytesHashed;
+    }
+
+    /** The stat data and blob SHA-1 recorded for one file. */
+    private static class Entry implements Serializable {
+        /** File size in bytes. */
+        private long size;
+        /** Modification time in milliseconds. */
+        private long mtime;
+        /** File key (device and inode on Unix). */
+        private String inode;
+        /** Blob SHA-1 ID of the file's contents. */
+        private String sha;
+        /** True if the file was hashed too soon after it was modified
+         * for its modification time to prove it unchanged. */
+        private boolean racy;
+    }
+
+    /** The file holding the index. */
+    static final File INDEXFILE = Utils.join(Objects.STAGING_AREA, "index");
+
+    /** The index loaded by this process. */
+    private static Index current;
+
+    /** Entries keyed by path relative to the working directory. */
+    private HashMap<String, Entry> entries;
+
+    /** True if the index must be written back. */
+    private transient boolean dirty;
+
+    /** Files hashed by this process. */
+    private transient long rehashed;
+
+    /** Hashes served from entries by this process. */
+    private transient long served;
+
+    /** File content bytes hashed by this process. */
+    private transient long bytesHashed;
+
+    /** SHA-1 IDs computed during this command, keyed by canonical path,
+     * size and modification time. Unlike entries, these are trusted even
+     * for racy files, since they only live for one command; see begin. */
+    private transient HashMap<String, String> memo = new HashMap<>();
+}
@@ -0,0 +1,312 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/** Makes the metadata writes of one command (the head pointer, branch
+ * heads and staging area) take effect together, even if Gitlet is
+ * killed or the machine loses power part way through.
+ *
+ * Metadata written during a command is held in memory, where later
+ * reads in the same command see it, until commit. A write either
+ * replaces a file or appends to it at a given length. Commit first
+ * syncs the objects written by the command, then writes every pending
+ * write to the journal and syncs it, then applies each, replacing a
+ * file by writing a temporary file and renaming it over the old one,
+ * and appending by cutting the file back to the given length and
+ * writing after it, syncs them and their directories, and last
+ * deletes the journal. A journal found at startup was complete and
+ * synced, and is replayed, which is safe even if some of its writes
+ * were already applied; one cut short fails its checksum and is
+ * discarded, leaving the old files as they were. The journal is MAGIC,
+ * a varint count of files, then for each its path under .gitlet as by
+ * Utils.writeString, a varint one more than the length appended at or
+ * 0 to replace the file, and the bytes written after a varint length,
+ * and last a 4-byte CRC-32 of everything before it.
+ * @author Daniel Bostwick */
+public class Journal {
+
+    /** Start of the journal: three magic bytes and the format version. */
+    static final byte[] MAGIC = {'G', 'J', 'N', 2};
+
+    /** Offset of a write that replaces its file. */
+    static final int REPLACE = -1;
+
+    /** Holds a metadata write until commit.
+     * @param file A file under .gitlet.
+     * @param contents Its new contents. */
+    static synchronized void write(File file, byte[] contents) {
+        PENDING.put(file.getAbsoluteFile(), new Write(REPLACE, contents));
+    }
+
+    /** Holds an append to a metadata file until commit. Appends to a
+     * file already written in this command are added to that write.
+     * @param file A file under .gitlet.
+     * @param offset Its length, counting writes pending in this
+     *               command.
+     * @param bytes The bytes to append. */
+    static synchronized void append(File file, int offset, byte[] bytes) {
+        File key = file.getAbsoluteFile();
+        Write prior = PENDING.get(key);
+        if (prior == null) {
+            PENDING.put(key, new Write(offset, bytes));
+            return;
+        }
+        if (prior.end() != offset) {
+            throw new IllegalArgumentException("append to " + file + " at "
+                    + offset + ", not at its end " + prior.end());
+        }
+        byte[] joined = Arrays.copyOf(prior.bytes,
+                prior.bytes.length + bytes.length);
+        System.arraycopy(bytes, 0, joined, prior.bytes.length, bytes.length);
+        PENDING.put(key, new Write(prior.offset, joined));
+    }
+
+    /** Holds a metadata write until commit.
+     * @param file A file under .gitlet.
+     * @param contents Its new contents, written as UTF-8. */
+    static void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Gets the contents of a file written in this command.
+     * @param file The file.
+     * @return The pending contents, or null if it has none. */
+    static synchronized byte[] pending(File file) {
+        Write write = PENDING.isEmpty() ? null
+                : PENDING.get(file.getAbsoluteFile());
+        if (write == null) {
+            return null;
+        } else if (write.offset == REPLACE) {
+            return write.bytes;
+        }
+        try {
+            byte[] contents = Arrays.copyOf(
+                    Files.readAllBytes(file.toPath()), write.end());
+            System.arraycopy(write.bytes, 0, contents, write.offset,
+                    write.bytes.length);
+            return contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Notes that a new object file must be synced before any metadata
+     * referring to it is committed.
+     * @param file The object file. */
+    static synchronized void created(File file) {
+        CREATED.add(file);
+    }
+
+    /** Commits this command's writes as described above. */
+    static synchronized void commit() {
+        if (!log()) {
+            return;
+        }
+        apply(PENDING);
+        PENDING.clear();
+        JOURNALFILE.delete();
+    }
+
+    /** Does the first half of commit: syncs the new object files, then
+     * writes and syncs the journal of the pending writes. A process that
+     * stops after this leaves the journal for recover to replay.
+     * @return True if there are pending writes to apply. */
+    static synchronized boolean log() {
+        if (PENDING.isEmpty() && CREATED.isEmpty()) {
+            return false;
+        }
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File file : CREATED) {
+            Utils.fsync(file);
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            Utils.fsync(dir);
+        }
+        CREATED.clear();
+        if (PENDING.isEmpty()) {
+            return false;
+        }
+        byte[] journal = encode(PENDING);
+        Utils.writeAtomic(JOURNALFILE, journal);
+        Utils.fsync(JOURNALFILE);
+        Utils.fsync(Objects.GITLET);
+        return true;
+    }
+
+    /** Drops this command's pending writes, as when it failed
+     * unexpectedly. */
+    static synchronized void abort() {
+        PENDING.clear();
+        CREATED.clear();
+    }
+
+    /** Replays or discards a journal left by a command that did not
+     * finish. */
+    static synchronized void recover() {
+        if (!JOURNALFILE.isFile()) {
+            return;
+        }
+        Map<File, Write> files = decode(Utils.readContents(JOURNALFILE));
+        if (files != null) {
+            apply(files);
+        }
+        JOURNALFILE.delete();
+    }
+
+    /** Replaces or appends to files, then syncs them and their
+     * directories.
+     * @param files The writes, by file. */
+    private static void apply(Map<File, Write> files) {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (Map.Entry<File, Write> entry : files.entrySet()) {
+            Write write = entry.getValue();
+            if (write.offset == REPLACE) {
+                Utils.writeAtomic(entry.getKey(), write.bytes);
+            } else {
+                append(entry.getKey(), write);
+            }
+            dirs.add(entry.getKey().getParentFile());
+        }
+        for (File file : files.keySet()) {
+            Utils.fsync(file);
+        }
+        for (File dir : dirs) {
+            Utils.fsync(dir);
+        }
+    }
+
+    /** Writes the bytes of an append after the first WRITE.offset bytes
+     * of a file, dropping anything beyond them.
+     * @param file The file.
+     * @param write The append. */
+    private static void append(File file, Write write) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE)) {
+            if (channel.size() < write.offset) {
+                throw new IllegalArgumentException(
+                        "append past the end of " + file);
+            }
+            channel.truncate(write.offset);
+            ByteBuffer buffer = ByteBuffer.wrap(write.bytes);
+            for (long pos = write.offset; buffer.hasRemaining();) {
+                pos += channel.write(buffer, pos);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Encodes a journal.
+     * @param files The writes, by file.
+     * @return The journal. */
+    private static byte[] encode(Map<File, Write> files) {
+        Path root = Objects.GITLET.getAbsoluteFile().toPath();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            Utils.writeVarint(out, files.size());
+            for (Map.Entry<File, Write> entry : files.entrySet()) {
+                Path path = entry.getKey().toPath();
+                if (!path.startsWith(root)) {
+                    throw new IllegalArgumentException(
+                            "not under .gitlet: " + path);
+                }
+                Write write = entry.getValue();
+                Utils.writeString(out, root.relativize(path).toString());
+                Utils.writeVarint(out, write.offset + 1);
+                Utils.writeVarint(out, write.bytes.length);
+                out.write(write.bytes);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Decodes a journal.
+     * @param journal The journal.
+     * @return The writes, by file, or null if the journal is incomplete
+     *         or damaged. */
+    private static Map<File, Write> decode(byte[] journal) {
+        if (journal.length < MAGIC.length + Integer.BYTES) {
+            return null;
+        }
+        int body = journal.length - Integer.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(journal, 0, body);
+        int stored = (journal[body] & 0xff) << 24
+                | (journal[body + 1] & 0xff) << 16
+                | (journal[body + 2] & 0xff) << 8 | (journal[body + 3] & 0xff);
+        if (stored != (int) crc.getValue()) {
+            return null;
+        }
+        LinkedHashMap<File, Write> files = new LinkedHashMap<>();
+        try (DataInputStream in = Utils.decoder(journal, MAGIC)) {
+            for (int n = Utils.readVarint(in); n > 0; n -= 1) {
+                String path = Utils.readString(in);
+                int offset = Utils.readVarint(in) - 1;
+                byte[] bytes = new byte[Utils.readVarint(in)];
+                in.readFully(bytes);
+                files.put(new File(Objects.GITLET, path),
+                        new Write(offset, bytes));
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            return null;
+        }
+        return files;
+    }
+
+    /** The journal file. */
+    static final File JOURNALFILE = Utils.join(Objects.GITLET, "journal");
+
+    /** A pending replacement of or append to a file. */
+    private static class Write {
+
+        /** Write Constructor.
+         * @param offset The length appended at, or REPLACE.
+         * @param bytes The bytes written. */
+        Write(int offset, byte[] bytes) {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+
+        /** Gets the length of the file once this is applied.
+         * @return The length. */
+        int end() {
+            return Math.max(offset, 0) + bytes.length;
+        }
+
+        /** The length appended at, or REPLACE. */
+        private final int offset;
+
+        /** The bytes written. */
+        private final byte[] bytes;
+    }
+
+    /** Metadata written in this command, by file. */
+    private static final LinkedHashMap<File, Write> PENDING =
+            new LinkedHashMap<>();
+
+    /** Object files created in this command. */
+    private static final LinkedHashSet<File> CREATED =
+            new LinkedHashSet<>();
+}
@@ -1,13 +1,25 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 /** Creates a LinkedHashMap class.
+ *
+ * It is stored as MAGIC and a 4-byte count of commits, each written as
+ * its ID, the 4-byte length of its stored form, and that form.
  * @author Daniel Bostwick */
 public class LinkedHM implements Serializable {
 
+    /** Start of every encoded map: three magic bytes and the format
+     * version. */
+    static final byte[] MAGIC = {'G', 'L', 'M', 1};
+
     /** LinkedHashMap Constructor for Commits. */
     public LinkedHM() {
         this.linkedCommit = new LinkedHashMap<>();
@@ -45,6 +57,47 @@ public class LinkedHM implements Serializable {
         return linkedCommit;
     }
 
+    /** Encodes the map as described above.
+     * @return The encoding. */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(linkedCommit.size());
+            for (Map.Entry<String, Commit> entry : linkedCommit.entrySet()) {
+                byte[] commitBytes = entry.getValue().toBytes();
+                Utils.writeString(out, entry.getKey());
+                out.writeInt(commitBytes.length);
+                out.write(commitBytes);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Reads a map from its encoding, or from its serialized form as
+     * written by older versions.
+     * @param bytes The stored map.
+     * @return The map. */
+    public static LinkedHM fromBytes(byte[] bytes) {
+        if (Utils.isSerialized(bytes)) {
+            return Utils.deserialize(bytes, LinkedHM.class);
+        }
+        try (DataInputStream in = Utils.decoder(bytes, MAGIC)) {
+            LinkedHM commits = new LinkedHM();
+            for (int i = in.readInt(); i > 0; i -= 1) {
+                String sha = Utils.readString(in);
+                byte[] commitBytes = new byte[in.readInt()];
+                in.readFully(commitBytes);
+                commits.add(sha, Commit.fromBytes(commitBytes, sha));
+            }
+            return commits;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Creates a LinkedHashMap of String and Commit.
      * <SHA1, Commit>. */
     private LinkedHashMap<String, Commit> linkedCommit;
@@ -57,4 +110,7 @@ public class LinkedHM implements Serializable {
 
     /** The Commit. */
     private Commit commit;
+
+    /** Keeps maps written by older versions readable. */
+    private static final long serialVersionUID = 8824821879300271515L;
 }
@@ -1,23 +1,28 @@
 package gitlet;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Daniel Bostwick
  */
 public class Main {
 
+    /** Commands that never change the repository, and so share its
+     * lock with each other. */
+    static final Set<String> READ_ONLY =
+            Set.of("log", "global-log", "status", "find");
 
-    /** Runs the checks for Main method.
+    /** Runs the checks for Main method. These throw rather than exit,
+     * so that a daemon serving the command keeps running.
      * @param args Check arguments. */
     public static void mainChecks(String[] args) {
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw Utils.error("Please enter a command.");
         }
         if (!Objects.GITLET.exists() && !args[0].equals("init")) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
         }
     }
 
@@ -26,8 +31,7 @@ public class Main {
     public static void argsCheck(String[] args) {
         if (args.length == 4
                 && !args[2].equals("--")) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw Utils.error("Incorrect operands.");
         }
     }
 
@@ -35,11 +39,85 @@ public class Main {
      *  <COMMAND> <OPERAND> ....
      *  java gitlet.Main add hello.txt */
     public static void main(String... args) throws IOException {
-        mainChecks(args);
+        if (args.length > 0 && args[0].equals("daemon")) {
+            Daemon.serve(args);
+            return;
+        }
+        execute(args);
+    }
+
+    /** Runs one command, as from main or for a client of the Daemon.
+     * @param args The command and its operands, after any of the flags
+     *             read by Stats.begin. */
+    static void execute(String[] args) throws IOException {
+        String[] command = Stats.begin(args);
+        Index.begin();
+        try {
+            mainChecks(command);
+            try (RepoLock lock = lock(command[0])) {
+                run(command);
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            reportStats();
+        }
+    }
+
+    /** Takes the repository lock for a command: shared if the command
+     * only reads and nothing is left to recover or migrate, exclusive
+     * otherwise. A writer may leave such work between the check and the
+     * shared lock being granted, so the check is made again once the
+     * lock is held, and the lock retaken as exclusive if it fails.
+     * @param command The name of the command.
+     * @return The lock, to be closed when the command is done. */
+    static RepoLock lock(String command) {
+        if (!READ_ONLY.contains(command) || pending()) {
+            return RepoLock.acquire(false);
+        }
+        RepoLock lock = RepoLock.acquire(true);
+        if (!pending()) {
+            return lock;
+        }
+        lock.close();
+        return RepoLock.acquire(false);
+    }
+
+    /** Tells whether an interrupted update or a migration is waiting to
+     * be done, which needs the exclusive lock.
+     * @return True if the journal or the old commit map exists. */
+    static boolean pending() {
+        return Journal.JOURNALFILE.exists() || Objects.COMMITSMAP.exists();
+    }
+
+    /** Runs a command while holding the repository lock, after finishing
+     * any interrupted or pending update, and commits what it wrote.
+     * @param args The command and its operands. */
+    static void run(String[] args) throws IOException {
+        if (Objects.GITLET.isDirectory()) {
+            Journal.recover();
+        }
+        if (!args[0].equals("init")) {
+            CommitStore.migrate();
+        }
+        try {
+            dispatch(args);
+            Journal.commit();
+        } catch (GitletException excp) {
+            Journal.commit();
+            System.out.println(excp.getMessage());
+        } finally {
+            Index.flush();
+        }
+    }
+
+    /** Runs the command named in ARGS[0].
+     * @param args The command and its operands. */
+    static void dispatch(String[] args) throws IOException {
         Objects obj = new Objects();
         switch (args[0]) {
         case "add":
-            obj.add(args[1]);
+            obj.add(Arrays.copyOfRange(args, 1, args.length));
             break;
         case "init":
             obj.init();
@@ -58,7 +136,11 @@ public class Main {
             obj.checkout(args);
             break;
         case "find":
-            obj.find(args[1]);
+            if (args.length == 3 && args[1].equals("--contains")) {
+                obj.findContaining(args[2]);
+            } else {
+                obj.find(args[1]);
+            }
             break;
         case "rm":
             obj.rm(args[1]);
@@ -75,9 +157,47 @@ public class Main {
         case "reset":
             obj.reset(args[1]);
             break;
+        case "merge":
+            obj.merge(args[1]);
+            break;
+        case "gc":
+        case "repack":
+            obj.gc();
+            break;
         default:
             System.out.println("No command with that name exists.");
             break;
         }
     }
+
+    /** Ends the command's Stats, exporting them as asked, and prints
+     * them with the cache, index, lock and checkout counters to standard
+     * error when Gitlet is run with --stats or -Dgitlet.stats=true. */
+    static void reportStats() {
+        boolean text = Stats.end();
+        Stats.export(System.err);
+        if (!text) {
+            return;
+        }
+        Stats.print(System.err);
+        CommitCache cache = CommitStore.CACHE;
+        System.err.printf("commit cache: %d hits, %d misses, "
+                + "%d evictions (capacity %d)%n", cache.getHits(),
+                cache.getMisses(), cache.getEvictions(),
+                cache.getCapacity());
+        System.err.printf("index: %d files rehashed (%d bytes), %d served "
+                + "from index%n", Index.getRehashed(), Index.getBytesHashed(),
+                Index.getServed());
+        if (RepoLock.getAcquisitions() > 0) {
+            System.err.printf("lock: %d taken, %d contended, %.1f ms "
+                    + "waited%n", RepoLock.getAcquisitions(),
+                    RepoLock.getContended(), RepoLock.getWaitMillis());
+        }
+        if (Checkout.getFilesWritten() + Checkout.getFilesDeleted() > 0) {
+            System.err.printf("checkout: %d files written, %d deleted, "
+                    + "%.0f files/sec%n", Checkout.getFilesWritten(),
+                    Checkout.getFilesDeleted(),
+                    Checkout.getFilesPerSecond());
+        }
+    }
 }
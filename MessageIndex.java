@@ -0,0 +1,606 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Index of commit messages, answering find without reading commits.
+ *
+ * Every commit's ID and message are appended to a journal as the commit
+ * is stored: JOURNAL_MAGIC followed by records, each the 20-byte commit
+ * ID, a varint length and the UTF-8 message. The index file covers a
+ * prefix of the journal. It is INDEX_MAGIC, the 8-byte length of the
+ * journal prefix covered, the 4-byte number of records N and their N
+ * 8-byte journal offsets, then N (8-byte message hash, 4-byte record)
+ * pairs sorted by hash, then the 4-byte number of distinct trigrams T
+ * and T (4-byte trigram, 4-byte start, 4-byte count) triples sorted by
+ * trigram, and last the posting lists of records, ascending, that those
+ * triples point into. A trigram is three consecutive message bytes.
+ * Records past the covered prefix are scanned directly; the index is
+ * rebuilt once they grow past a quarter of it. Records are appended
+ * outside the Journal, so a crash can cut the last one short; the
+ * journal is then rebuilt from the commit store before it is read or
+ * appended to, as CommitGraph rebuilds a damaged graph.
+ * @author Daniel Bostwick */
+public class MessageIndex {
+
+    /** Start of the journal: three magic bytes and the format version. */
+    static final byte[] JOURNAL_MAGIC = {'G', 'M', 'J', 1};
+
+    /** Start of the index: three magic bytes and the format version. */
+    static final byte[] INDEX_MAGIC = {'G', 'M', 'I', 1};
+
+    /** Uncovered journal bytes always tolerated before a rebuild. */
+    static final long MIN_TAIL = 64 * 1024;
+
+    /** MessageIndex Constructor.
+     * @param journalFile The journal.
+     * @param indexFile The index of the journal. */
+    MessageIndex(File journalFile, File indexFile) {
+        this.journal = journalFile;
+        this.index = indexFile;
+    }
+
+    /** Gets the index of this repository's commits.
+     * @return The index. */
+    static MessageIndex get() {
+        return new MessageIndex(JOURNALFILE, INDEXFILE);
+    }
+
+    /** Records a newly stored commit. If there is no journal yet, the
+     * whole journal is instead built from the commit store when it is
+     * first searched.
+     * @param commit The commit. */
+    static void add(Commit commit) {
+        if (JOURNALFILE.isFile()) {
+            get().append(commit.getCommitSHA(), commit.getMessage());
+        }
+    }
+
+    /** Appends one record to the journal, first opening it so that a
+     * record cut short by a crash is not followed by this one. Nothing
+     * is appended if opening it rebuilt it, since it then already holds
+     * the commit.
+     * @param sha The commit's SHA-1 ID.
+     * @param message The commit's message. */
+    void append(String sha, String message) {
+        open();
+        if (built) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(journal.toPath(),
+                StandardOpenOption.APPEND)) {
+            ByteBuffer record = ByteBuffer.wrap(record(sha, message));
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Encodes one journal record.
+     * @param sha The commit's SHA-1 ID.
+     * @param message The commit's message.
+     * @return The record. */
+    static byte[] record(String sha, String message)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Utils.writeId(out, sha);
+        Utils.writeString(out, message);
+        return bytes.toByteArray();
+    }
+
+    /** Writes a journal holding every stored commit. */
+    private void build() {
+        try {
+            File temp = File.createTempFile("messages", ".tmp",
+                    journal.getParentFile());
+            try (BufferedOutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(temp.toPath()), Utils.CHUNK_SIZE)) {
+                out.write(JOURNAL_MAGIC);
+                for (String sha : CommitStore.all()) {
+                    out.write(record(sha, CommitStore.read(sha).getMessage()));
+                }
+            }
+            Files.move(temp.toPath(), journal.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Finds the commits with exactly the given message.
+     * @param message The message.
+     * @return Their IDs, in sorted order. */
+    List<String> find(String message) {
+        open();
+        byte[] wanted = message.getBytes(StandardCharsets.UTF_8);
+        TreeSet<String> ids = new TreeSet<>();
+        if (table != null) {
+            long hash = hash(wanted, 0, wanted.length);
+            int lo = 0, hi = records;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (table.getLong(hashPos(mid)) < hash) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < records
+                         && table.getLong(hashPos(i)) == hash; i += 1) {
+                long offset = table.getLong(offsetPos(
+                        table.getInt(hashPos(i) + Long.BYTES)));
+                if (messageEquals(offset, wanted)) {
+                    ids.add(idAt(offset));
+                }
+            }
+        }
+        for (long offset = covered; offset < log.limit();
+             offset = next(offset)) {
+            if (messageEquals(offset, wanted)) {
+                ids.add(idAt(offset));
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Finds the commits whose messages contain the given text. Only the
+     * records holding every trigram of TEXT are checked; text shorter
+     * than a trigram is checked against every message.
+     * @param text The text.
+     * @return Their IDs, in sorted order. */
+    List<String> findContaining(String text) {
+        open();
+        byte[] wanted = text.getBytes(StandardCharsets.UTF_8);
+        TreeSet<String> ids = new TreeSet<>();
+        if (table != null && wanted.length >= 3) {
+            for (int record : candidates(wanted)) {
+                long offset = table.getLong(offsetPos(record));
+                if (messageContains(offset, wanted)) {
+                    ids.add(idAt(offset));
+                }
+            }
+        } else {
+            for (long offset = JOURNAL_MAGIC.length; offset < covered;
+                 offset = next(offset)) {
+                if (messageContains(offset, wanted)) {
+                    ids.add(idAt(offset));
+                }
+            }
+        }
+        for (long offset = covered; offset < log.limit();
+             offset = next(offset)) {
+            if (messageContains(offset, wanted)) {
+                ids.add(idAt(offset));
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Intersects the posting lists of the trigrams of WANTED, shortest
+     * first.
+     * @param wanted At least three bytes.
+     * @return The records holding every trigram. */
+    private int[] candidates(byte[] wanted) {
+        TreeMap<Integer, Integer> lists = new TreeMap<>();
+        for (int i = 0; i + 3 <= wanted.length; i += 1) {
+            int entry = findTrigram(trigram(wanted, i));
+            if (entry < 0) {
+                return new int[0];
+            }
+            lists.put(entry, table.getInt(entry + 2 * Integer.BYTES));
+        }
+        ArrayList<Integer> order = new ArrayList<>(lists.keySet());
+        order.sort((a, b) -> lists.get(a) - lists.get(b));
+        int[] result = null;
+        for (int entry : order) {
+            int start = table.getInt(entry + Integer.BYTES);
+            int count = table.getInt(entry + 2 * Integer.BYTES);
+            if (result == null) {
+                result = new int[count];
+                for (int i = 0; i < count; i += 1) {
+                    result[i] = table.getInt(postingPos(start + i));
+                }
+                continue;
+            }
+            int kept = 0;
+            for (int r : result) {
+                if (containsPosting(start, count, r)) {
+                    result[kept] = r;
+                    kept += 1;
+                }
+            }
+            result = Arrays.copyOf(result, kept);
+        }
+        return result;
+    }
+
+    /** Finds a trigram's entry in the trigram table.
+     * @param trigram The trigram.
+     * @return The byte position of its entry, or -1 if no message has
+     *         it. */
+    private int findTrigram(int trigram) {
+        int lo = 0, hi = trigrams - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = trigramPos(mid);
+            int found = table.getInt(entry);
+            if (found < trigram) {
+                lo = mid + 1;
+            } else if (found > trigram) {
+                hi = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /** Checks whether a posting list holds a record.
+     * @param start The index of the list's first posting.
+     * @param count The length of the list.
+     * @param record The record.
+     * @return True if it does. */
+    private boolean containsPosting(int start, int count, int record) {
+        int lo = start, hi = start + count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int found = table.getInt(postingPos(mid));
+            if (found < record) {
+                lo = mid + 1;
+            } else if (found > record) {
+                hi = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* READING THE JOURNAL AND INDEX */
+
+    /** Maps the journal and index, building or rebuilding them first as
+     * needed. */
+    private void open() {
+        if (log != null) {
+            return;
+        }
+        if (!journal.isFile()) {
+            build();
+            built = true;
+        }
+        log = map(journal);
+        table = index.isFile() ? map(index) : null;
+        if (table != null && (table.limit() < INDEX_MAGIC.length + 12
+                || !hasMagic(table, INDEX_MAGIC))) {
+            table = null;
+        }
+        covered = table == null ? JOURNAL_MAGIC.length
+                : table.getLong(INDEX_MAGIC.length);
+        if (covered > log.limit()) {
+            table = null;
+            covered = JOURNAL_MAGIC.length;
+        }
+        if (log.limit() < JOURNAL_MAGIC.length
+                || !hasMagic(log, JOURNAL_MAGIC) || !complete(covered)) {
+            build();
+            built = true;
+            index.delete();
+            log = map(journal);
+            table = null;
+            covered = JOURNAL_MAGIC.length;
+        }
+        if (log.limit() - covered > Math.max(MIN_TAIL, covered / 4)) {
+            reindex();
+            table = map(index);
+            covered = log.limit();
+        }
+        if (table != null) {
+            records = table.getInt(INDEX_MAGIC.length + Long.BYTES);
+            trigrams = table.getInt(hashPos(records));
+        }
+    }
+
+    /** Checks that the records from OFFSET on end exactly at the end of
+     * the journal, as they do unless a crash cut the last one short.
+     * @param offset The offset of a record, or of the journal's end.
+     * @return True if no record runs past the end. */
+    private boolean complete(long offset) {
+        while (offset < log.limit()) {
+            long pos = offset + Utils.ID_BYTES;
+            long length = 0;
+            for (int shift = 0;; shift += 7) {
+                if (pos >= log.limit() || shift > 28) {
+                    return false;
+                }
+                int b = log.get((int) pos) & 0xff;
+                pos += 1;
+                length |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            offset = pos + Math.max(0, length - 1);
+            if (offset > log.limit()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Rewrites the index to cover the whole journal. */
+    private void reindex() {
+        ArrayList<Long> offsets = new ArrayList<>();
+        ArrayList<long[]> hashes = new ArrayList<>();
+        long[] pairs = new long[1024];
+        int pairCount = 0;
+        for (long offset = JOURNAL_MAGIC.length; offset < log.limit();
+             offset = next(offset)) {
+            int record = offsets.size();
+            offsets.add(offset);
+            byte[] message = new byte[messageLength(offset)];
+            log.get(messageStart(offset), message);
+            hashes.add(new long[] {hash(message, 0, message.length), record});
+            for (int i = 0; i + 3 <= message.length; i += 1) {
+                if (pairCount == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, 2 * pairCount);
+                }
+                pairs[pairCount] = (long) trigram(message, i) << 32 | record;
+                pairCount += 1;
+            }
+        }
+        hashes.sort((a, b) -> Long.compare(a[0], b[0]));
+        Arrays.sort(pairs, 0, pairCount);
+        int postingCount = 0;
+        for (int i = 0; i < pairCount; i += 1) {
+            if (i == 0 || pairs[i] != pairs[i - 1]) {
+                pairs[postingCount] = pairs[i];
+                postingCount += 1;
+            }
+        }
+        try {
+            File temp = File.createTempFile("index", ".tmp",
+                    index.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            temp.toPath()), Utils.CHUNK_SIZE))) {
+                out.write(INDEX_MAGIC);
+                out.writeLong(log.limit());
+                out.writeInt(offsets.size());
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                for (long[] hash : hashes) {
+                    out.writeLong(hash[0]);
+                    out.writeInt((int) hash[1]);
+                }
+                int distinct = 0;
+                for (int i = 0; i < postingCount; i += 1) {
+                    if (i == 0 || pairs[i] >>> 32 != pairs[i - 1] >>> 32) {
+                        distinct += 1;
+                    }
+                }
+                out.writeInt(distinct);
+                for (int i = 0, j; i < postingCount; i = j) {
+                    for (j = i; j < postingCount
+                            && pairs[j] >>> 32 == pairs[i] >>> 32; j += 1) {
+                        continue;
+                    }
+                    out.writeInt((int) (pairs[i] >>> 32));
+                    out.writeInt(i);
+                    out.writeInt(j - i);
+                }
+                for (int i = 0; i < postingCount; i += 1) {
+                    out.writeInt((int) pairs[i]);
+                }
+            }
+            Files.move(temp.toPath(), index.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Maps a whole file for reading.
+     * @param file The file.
+     * @return The mapped contents. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Checks the start of a mapped file.
+     * @param buffer The mapped file.
+     * @param magic The bytes it must start with.
+     * @return True if it starts with MAGIC. */
+    private static boolean hasMagic(ByteBuffer buffer, byte[] magic) {
+        byte[] start = new byte[magic.length];
+        buffer.get(0, start);
+        return Arrays.equals(start, magic);
+    }
+
+    /** Gets the commit ID of the journal record at OFFSET.
+     * @param offset The record's offset.
+     * @return The hexadecimal ID. */
+    private String idAt(long offset) {
+        byte[] id = new byte[Utils.ID_BYTES];
+        log.get((int) offset, id);
+        return Utils.hex(id);
+    }
+
+    /** Gets the length of the message of the record at OFFSET.
+     * @param offset The record's offset.
+     * @return The message's length in bytes. */
+    private int messageLength(long offset) {
+        int pos = (int) offset + Utils.ID_BYTES;
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = log.get(pos) & 0xff;
+            pos += 1;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value - 1;
+            }
+        }
+    }
+
+    /** Gets the position of the message of the record at OFFSET.
+     * @param offset The record's offset.
+     * @return The position of the message's first byte. */
+    private int messageStart(long offset) {
+        int pos = (int) offset + Utils.ID_BYTES;
+        while ((log.get(pos) & 0x80) != 0) {
+            pos += 1;
+        }
+        return pos + 1;
+    }
+
+    /** Gets the offset of the record after the one at OFFSET.
+     * @param offset The record's offset.
+     * @return The next record's offset. */
+    private long next(long offset) {
+        return messageStart(offset) + Math.max(0, messageLength(offset));
+    }
+
+    /** Checks the message of the record at OFFSET.
+     * @param offset The record's offset.
+     * @param wanted A UTF-8 message.
+     * @return True if the record's message is WANTED. */
+    private boolean messageEquals(long offset, byte[] wanted) {
+        if (messageLength(offset) != wanted.length) {
+            return false;
+        }
+        int start = messageStart(offset);
+        for (int i = 0; i < wanted.length; i += 1) {
+            if (log.get(start + i) != wanted[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Checks the message of the record at OFFSET.
+     * @param offset The record's offset.
+     * @param wanted UTF-8 text.
+     * @return True if the record's message contains WANTED. */
+    private boolean messageContains(long offset, byte[] wanted) {
+        int start = messageStart(offset);
+        int length = messageLength(offset);
+        search:
+        for (int i = 0; i + wanted.length <= length; i += 1) {
+            for (int j = 0; j < wanted.length; j += 1) {
+                if (log.get(start + i + j) != wanted[j]) {
+                    continue search;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** Gets the trigram starting at BYTES[I].
+     * @param bytes A message.
+     * @param i A position at least three bytes from the end.
+     * @return The trigram. */
+    private static int trigram(byte[] bytes, int i) {
+        return (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8
+                | (bytes[i + 2] & 0xff);
+    }
+
+    /** Hashes part of a message with 64-bit FNV-1a.
+     * @param bytes The message.
+     * @param start The first byte hashed.
+     * @param end Just past the last byte hashed.
+     * @return The hash. */
+    static long hash(byte[] bytes, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i += 1) {
+            hash ^= bytes[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Gets the position in the index of the offset of record I.
+     * @param i A record.
+     * @return The byte position. */
+    private static int offsetPos(int i) {
+        return INDEX_MAGIC.length + Long.BYTES + Integer.BYTES
+                + i * Long.BYTES;
+    }
+
+    /** Gets the position in the index of hash entry I.
+     * @param i A position in the sorted hashes.
+     * @return The byte position. */
+    private int hashPos(int i) {
+        return offsetPos(records) + i * (Long.BYTES + Integer.BYTES);
+    }
+
+    /** Gets the position in the index of trigram entry I.
+     * @param i A position in the sorted trigrams.
+     * @return The byte position. */
+    private int trigramPos(int i) {
+        return hashPos(records) + Integer.BYTES + i * 3 * Integer.BYTES;
+    }
+
+    /** Gets the position in the index of posting I.
+     * @param i A position in the posting lists.
+     * @return The byte position. */
+    private int postingPos(int i) {
+        return trigramPos(trigrams) + i * Integer.BYTES;
+    }
+
+    /** This repository's journal of commit messages. */
+    static final File JOURNALFILE = Utils.join(Objects.GITLET, "messages");
+
+    /** This repository's index of commit messages. */
+    static final File INDEXFILE =
+            Utils.join(Objects.GITLET, "messages.idx");
+
+    /** The journal file. */
+    private final File journal;
+
+    /** The index file. */
+    private final File index;
+
+    /** The mapped journal, once opened. */
+    private MappedByteBuffer log;
+
+    /** The mapped index, or null if there is none. */
+    private MappedByteBuffer table;
+
+    /** Length of the journal prefix the index covers. */
+    private long covered;
+
+    /** Number of records the index covers. */
+    private int records;
+
+    /** Number of distinct trigrams in the index. */
+    private int trigrams;
+
+    /** True if opening the journal rebuilt it from the commit store. */
+    private boolean built;
+}
@@ -5,11 +5,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.LinkedHashMap;
-import java.util.Formatter;
-import java.util.Collections;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 
 /** Class that holds all the major methods in Gitlet.
@@ -31,20 +37,18 @@ public class Objects implements Serializable {
         } catch (IOException excp) {
             throw new GitletException(excp.getMessage());
         }
-        Commit initial = new Commit("initial commit",
-                null, new LinkedHashMap<>());
-        String initialCommitSHA = initial.getCommitSHA();
-        if (COMMITSMAP.exists()) {
+        if (HEAD.length() != 0) {
             System.out.println("A Gitlet version-control "
                     + "system already exists in the current directory.");
         } else {
-            committedFiles = new LinkedHM();
-            committedFiles.add(initialCommitSHA, initial);
-            Utils.writeObject(COMMITSMAP, committedFiles);
-            Utils.writeContents(HEAD, "master");
-            Utils.writeContents(MASTER, initialCommitSHA);
+            Commit initial = new Commit("initial commit",
+                    null, Tree.write(new LinkedHashMap<>()));
+            String initialCommitSHA = initial.getCommitSHA();
+            CommitStore.write(initial);
+            Journal.write(HEAD, "master");
+            Journal.write(MASTER, initialCommitSHA);
             stage = new Staged();
-            Utils.writeObject(STAGEDFILE, stage);
+            stage.write(STAGEDFILE);
         }
     }
 
@@ -52,48 +56,111 @@ public class Objects implements Serializable {
      * @param file The file passed in.
      * @return */
     public String fileSHA(File file) {
-        return Utils.sha1(file.getName(), Utils.readContents(file));
+        return Index.get().sha(file);
     }
 
 
+    /** Gets the path of a file relative to the working directory, in the
+     * form used to track it.
+     * @param file The file.
+     * @return Its path, with components separated by Tree.SEPARATOR. */
+    static String relativePath(File file) {
+        String path = CWD.toPath().relativize(
+                file.getAbsoluteFile().toPath().normalize()).toString();
+        return path.replace(File.separator, Tree.SEPARATOR);
+    }
+
     /** Gets the head Commit.
      * @return */
     public Commit getHead2() {
-        LinkedHM commits = Utils.readObject(COMMITSMAP, LinkedHM.class);
         File head = new File(BRANCHES + "/"
                 + Utils.readContentsAsString(HEAD));
         String headSHA = Utils.readContentsAsString(head);
-        return commits.getCommits().get(headSHA);
+        return CommitStore.read(headSHA);
     }
 
-    /** Adds a copy of the file as it currently exists to the staging area.
-     * @param added The filename to be added. */
-    public void add(String added) throws IOException, FileNotFoundException {
-        File addedFile = new File(added);
-        File stagingFile = Utils.join(STAGING_DIR, added);
-        Staged stagingArea = Utils.readObject(STAGEDFILE, Staged.class);
-        Commit head = getHead2();
-        if (!addedFile.exists()) {
-            System.out.println("File does not exist.");
-        } else {
-            if (head.getBlobs().get(added) == null
-                    || !fileSHA(addedFile).equals(head.getBlobs().get(added))) {
-                if (stagingArea.getRemoved().contains(fileSHA(addedFile))) {
-                    stagingArea.getRemoved().remove(added);
+    /** Adds copies of files as they currently exist to the staging area.
+     * Each path may name a file, a directory, meaning every file under
+     * it, or a glob pattern matched against paths from the working
+     * directory, as in "src/**.java"; "-A" adds every working file and
+     * also stages the removal of tracked files that no longer exist. The
+     * files are hashed in parallel and the staging area written once.
+     * If any path matches no file, nothing is added.
+     * @param paths The files, directories, patterns or flags to add. */
+    public void add(String... paths) throws IOException {
+        if (paths.length == 0) {
+            throw Utils.error("Incorrect operands.");
+        }
+        TreeSet<String> files = new TreeSet<>();
+        boolean all = false;
+        List<String> working = null;
+        for (String path : paths) {
+            File file = new File(path);
+            if (path.equals("-A")) {
+                all = true;
+                working = working == null
+                        ? Utils.plainFilenamesUnder(CWD) : working;
+                files.addAll(working);
+            } else if (file.isFile()) {
+                files.add(relativePath(file));
+            } else if (file.isDirectory()) {
+                String dir = relativePath(file);
+                String prefix = dir.isEmpty() ? "" : dir + Tree.SEPARATOR;
+                for (String name : Utils.plainFilenamesUnder(file)) {
+                    files.add(prefix + name);
+                }
+            } else if (GLOB_CHARS.matcher(path).find()) {
+                PathMatcher matcher = FileSystems.getDefault()
+                        .getPathMatcher("glob:" + path);
+                working = working == null
+                        ? Utils.plainFilenamesUnder(CWD) : working;
+                int before = files.size();
+                for (String name : working) {
+                    if (matcher.matches(Paths.get(name))) {
+                        files.add(name);
+                    }
+                }
+                if (files.size() == before) {
+                    throw Utils.error("File does not exist.");
+                }
+            } else {
+                throw Utils.error("File does not exist.");
+            }
+        }
+        Map<String, String> shas = Index.get().storeAll(files,
+                Config.getInt(ADD_THREADS_KEY,
+                        Runtime.getRuntime().availableProcessors()));
+        Staged stagingArea = Staged.read(STAGEDFILE);
+        Commit headCommit = getHead2();
+        Map<String, String> head = all
+                ? headCommit.getBlobs() : headCommit.getBlobs(files);
+        boolean changed = false;
+        for (String added : files) {
+            String addedSHA = shas.get(added);
+            changed |= stagingArea.unremove(added);
+            if (!addedSHA.equals(head.get(added))) {
+                stagingArea.add(added, addedSHA);
+                changed = true;
+            }
+        }
+        if (all) {
+            for (String tracked : head.keySet()) {
+                if (!files.contains(tracked)
+                        && !stagingArea.getRemoved().contains(tracked)) {
+                    stagingArea.toBeRemoved(tracked);
+                    changed = true;
                 }
-                Utils.writeContents(stagingFile, fileSHA(addedFile));
-                stagingArea.add(added, fileSHA(addedFile));
-                Utils.writeObject(STAGEDFILE, stagingArea);
-                Utils.writeContents(Utils.join(BLOBS + "/"
-                        + fileSHA(addedFile)), Utils.readContents(addedFile));
             }
-            if (fileSHA(addedFile).equals(head.getBlobs().get(added))) {
-                if (stagingArea.getRemoved().contains(added)) {
-                    stagingArea.getRemoved().remove(added);
-                    Utils.writeObject(STAGEDFILE, stagingArea);
+            for (String staged : new ArrayList<>(
+                    stagingArea.getAdded().keySet())) {
+                if (!files.contains(staged)) {
+                    changed |= stagingArea.unstage(staged);
                 }
             }
         }
+        if (changed) {
+            stagingArea.write(STAGEDFILE);
+        }
     }
 
     /** Takes in a File and clears the current directory of all its files.
@@ -111,99 +178,109 @@ public class Objects implements Serializable {
      * creating a new commit.
      * @param message The commit message. */
     public void commit(String message) throws FileNotFoundException {
-        Staged stagingArea = Utils.readObject(STAGEDFILE, Staged.class);
-        LinkedHM tempCommitLHM = Utils.readObject(COMMITSMAP, LinkedHM.class);
+        Staged stagingArea = Staged.read(STAGEDFILE);
         if (stagingArea.getAdded().isEmpty()
                 && stagingArea.getRemoved().isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw Utils.error("No changes added to the commit.");
         }
         if (message.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw Utils.error("Please enter a commit message.");
         }
         Commit current = getHead2();
-        LinkedHashMap<String, String> tempBlobMap = new LinkedHashMap<>();
-        if (!getHead2().getBlobs().isEmpty()) {
-            tempBlobMap.putAll(current.getBlobs());
-        }
+        LinkedHashMap<String, String> changes = new LinkedHashMap<>();
         for (String removed : stagingArea.getRemoved()) {
-            tempBlobMap.remove(removed);
-        }
-        for (String added : stagingArea.getAdded().keySet()) {
-            tempBlobMap.put(added, stagingArea.getAdded().get(added));
-
+            changes.put(removed, null);
         }
-        Commit nextCommit = new Commit(message,
-                current.getCommitSHA(), tempBlobMap);
+        changes.putAll(stagingArea.getAdded());
+        Commit nextCommit = new Commit(message, current.getCommitSHA(),
+                Tree.update(current.getTree(), changes));
         String nextCommitSHA = nextCommit.getCommitSHA();
-        tempCommitLHM.add(nextCommitSHA, nextCommit);
-        Utils.writeObject(COMMITSMAP, tempCommitLHM);
+        CommitStore.write(nextCommit);
         String s = Utils.readContentsAsString(HEAD);
         File head = Utils.join(BRANCHES, s);
-        Utils.writeContents(head, nextCommitSHA);
+        Journal.write(head, nextCommitSHA);
         stagingArea.clear();
-        Utils.writeObject(STAGEDFILE, stagingArea);
+        stagingArea.write(STAGEDFILE);
         clearDir(STAGING_DIR);
     }
 
     /** Removes a file from Gitlet.
-     * @param fileName The name of the file to remove.  */
-    public void rm(String fileName) {
-        Staged stagingArea = Utils.readObject(STAGEDFILE, Staged.class);
+     * @param path The path of the file to remove.  */
+    public void rm(String path) {
+        String fileName = relativePath(new File(path));
+        Staged stagingArea = Staged.read(STAGEDFILE);
         Commit head = getHead2();
         if (!stagingArea.getAdded().containsKey(fileName)
                 && !head.getBlobs().containsKey(fileName)) {
             System.out.println("No reason to remove the file.");
         }
         if (stagingArea.getAdded().containsKey(fileName)) {
-            stagingArea.getAdded().remove(fileName);
-            Utils.writeObject(STAGEDFILE, stagingArea);
+            stagingArea.unstage(fileName);
+            stagingArea.write(STAGEDFILE);
         }
         if (head.getBlobs().containsKey(fileName)) {
-            File isFileInCWD = new File(CWD, fileName);
-            if (isFileInCWD.exists()) {
-                Utils.restrictedDelete(isFileInCWD);
-            }
-            stagingArea.getRemoved().add(fileName);
-            Utils.writeObject(STAGEDFILE, stagingArea);
+            Utils.restrictedDelete(CWD, fileName);
+            stagingArea.toBeRemoved(fileName);
+            stagingArea.write(STAGEDFILE);
         }
     }
 
-    /** Displays information about each commit. */
+    /** Displays information about each commit, following first parents
+     * back from the head commit. Entries are written as they are read,
+     * and the walk stops if the output is closed. */
     public void log() {
-        Formatter format = new Formatter();
-        Commit commit = getHead2();
-        while (commit != null) {
-            format.format("===\n");
-            format.format("commit ");
-            format.format(commit.getCommitSHA());
-            format.format("\nDate: ");
-            format.format(commit.getTimestamp());
-            format.format("\n");
-            format.format(commit.getMessage());
-            if (commit.getParent() == null) {
-                break;
-            } else {
-                format.format("\n\n");
-                commit = specificCom(commit.getParent());
+        String head = getHead2().getCommitSHA();
+        CommitGraph graph = CommitGraph.containing(head);
+        Writer out = Utils.stdout();
+        try {
+            for (int i = graph.position(head); i != CommitGraph.NONE;
+                 i = graph.parent(i, 0)) {
+                printLogEntry(out, specificCom(graph.id(i)));
             }
+            out.flush();
+        } catch (IOException excp) {
+            return;
         }
-        System.out.println(format);
-        System.out.println();
+    }
+
+    /** Writes one commit's log entry.
+     * @param out The output.
+     * @param commit The commit. */
+    private void printLogEntry(Writer out, Commit commit)
+            throws IOException {
+        out.write("===\ncommit ");
+        out.write(commit.getCommitSHA());
+        if (commit.getSecondParent() != null) {
+            out.write("\nMerge: " + commit.getParent().substring(0, 7) + " "
+                    + commit.getSecondParent().substring(0, 7));
+        }
+        out.write("\nDate: ");
+        out.write(commit.getTimestamp());
+        out.write("\n");
+        out.write(commit.getMessage());
+        out.write("\n\n");
     }
 
     /** Gets a specific Commit.
      * @param id The ID.
      * @return commits. */
     private Commit specificCom(String id) {
-        LinkedHM commits = Utils.readObject(COMMITSMAP, LinkedHM.class);
-        return commits.getCommits().get(id);
+        return CommitStore.read(id);
     }
 
-    /** Displays info on all commits ever made. */
+    /** Displays info on all commits ever made, in no particular order.
+     * Commits are read and written one at a time, and the listing stops
+     * if the output is closed. */
     public void globalLog() {
-        log();
+        Writer out = Utils.stdout();
+        try {
+            for (String id : CommitStore.all()) {
+                printLogEntry(out, specificCom(id));
+            }
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        }
     }
 
     /** Method to check out branches. Called in checkout().
@@ -211,105 +288,98 @@ public class Objects implements Serializable {
     public void checkoutBranch(String branchName) {
         Commit head = getHead2();
         Commit formerHead = head;
-        LinkedHM tempCommitLHM = Utils.readObject(COMMITSMAP, LinkedHM.class);
         File branch = Utils.join(BRANCHES, branchName);
-        Staged stagingArea = Utils.readObject(STAGEDFILE, Staged.class);
+        Staged stagingArea = Staged.read(STAGEDFILE);
         if (!branch.exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw Utils.error("No such branch exists.");
         }
         if (Utils.readContentsAsString(HEAD).equals(branchName)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
-        }
-        for (File file: CWD.listFiles()) {
-            if (file.isFile()) {
-                if (!Utils.join(BLOBS, fileSHA(file)).exists()) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    System.exit(0);
-                }
-            }
+            throw Utils.error("No need to checkout the current branch.");
         }
+        Commit target = CommitStore.read(
+                Utils.readContentsAsString(branch));
+        checkUntracked(head, stagingArea, target.getBlobs());
+        Map<String, String> working = knownWorkingFiles(head, stagingArea);
         stagingArea.clear();
-        Utils.writeObject(STAGEDFILE, stagingArea);
-        Utils.writeContents(HEAD, branchName);
+        stagingArea.write(STAGEDFILE);
+        Journal.write(HEAD, branchName);
         File headBranch = new File(BRANCHES
                 + "/" + Utils.readContentsAsString(HEAD));
         String branchContents = Utils.readContentsAsString(headBranch);
-        head = tempCommitLHM.getCommits().get(branchContents);
+        head = CommitStore.read(branchContents);
         File newHead = Utils.join(BRANCHES, headBranch.getName());
-        Utils.writeContents(newHead, branchContents);
-        for (String blobName : head.getBlobs().keySet()) {
-            String checkedFileSHA = head.getBlobs().get(blobName);
-            File outCheckedFile = new File(BLOBS
-                    + "/" + checkedFileSHA);
-            String readCheckedString
-                    = Utils.readContentsAsString(outCheckedFile);
-            File cwd = new File(".");
-            Utils.writeContents(Utils.join(cwd, blobName), readCheckedString);
-        }
-        for (String fileName : formerHead.getBlobs().keySet()) {
-            File cwdFile = Utils.join(CWD, fileName);
-            String cwdName = fileSHA(cwdFile);
-            if (formerHead.getBlobs().containsValue(cwdName)) {
-                Utils.restrictedDelete(cwdFile);
+        Journal.write(newHead, branchContents);
+        new Checkout().run(formerHead, head, working);
+    }
+
+    /** Checks that checking out files would overwrite no untracked
+     * working file, unless it already holds what would be written. Files
+     * tracked by HEAD or staged for addition are not untracked.
+     * @param head The commit checked out.
+     * @param stagingArea The staging area.
+     * @param incoming Paths of the files to be written, mapped to their
+     *                 blob IDs. */
+    private void checkUntracked(Commit head, Staged stagingArea,
+                                Map<String, String> incoming) {
+        for (Map.Entry<String, String> path : incoming.entrySet()) {
+            File file = Utils.join(CWD, path.getKey());
+            if (file.isFile() && !head.getBlobs().containsKey(path.getKey())
+                    && !stagingArea.getAdded().containsKey(path.getKey())
+                    && !Utils.sha1File(file.getName(), file)
+                            .equals(path.getValue())) {
+                throw Utils.error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
             }
         }
     }
 
+    /** Gets the blob IDs of the working files tracked by HEAD or staged
+     * for addition whose index entries prove them unchanged, without
+     * hashing any file. A checkout rewrites every other file it tracks.
+     * @param head The commit checked out.
+     * @param stagingArea The staging area.
+     * @return Blob SHA-1 IDs of those files, by path. */
+    private Map<String, String> knownWorkingFiles(Commit head,
+                                                  Staged stagingArea) {
+        HashSet<String> tracked = new HashSet<>(head.getBlobs().keySet());
+        tracked.addAll(stagingArea.getAdded().keySet());
+        return Index.get().cachedAll(tracked);
+    }
+
     /** Method to check out files. Called in checkout().
-     * @param fileName Takes in a file. */
-    public void checkoutFile(String fileName) {
+     * @param path Takes in a file path. */
+    public void checkoutFile(String path) {
+        String fileName = relativePath(new File(path));
         Commit head = getHead2();
         if (head.getBlobs().get(fileName) == null) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw Utils.error("File does not exist in that commit.");
         } else {
             if (head.getBlobs().containsKey(fileName)) {
                 String checkedFileSHA = head.getBlobs().get(fileName);
-                File outCheckedFile = new File(BLOBS
-                        + "/" + checkedFileSHA);
-                String readCheckedString =
-                        Utils.readContentsAsString(outCheckedFile);
-                File cwd = new File(".");
-                Utils.writeContents(Utils.join(cwd,
-                        fileName), readCheckedString);
-                System.exit(0);
+                BlobStore.checkout(checkedFileSHA, Utils.join(CWD,
+                        fileName));
+                return;
             }
         }
     }
 
     /** Method to checks out commits. Called in checkout().
      * @param commitName Takes in a commit.
-     * @param fileName  Takes in a file. */
-    public void checkoutCommit(String commitName, String fileName) {
-        LinkedHM commits = Utils.readObject(COMMITSMAP, LinkedHM.class);
-        for (String commitSHA : commits.getCommits().keySet()) {
-            if (commitSHA.contains(commitName)) {
-                commitName = commitSHA;
-            }
-        }
-        LinkedHM tempCommitLHM = Utils.readObject(COMMITSMAP, LinkedHM.class);
-        if (!tempCommitLHM.getCommits().containsKey(commitName)) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
-        if (!tempCommitLHM.getCommits().get(commitName).getBlobs().
-                containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
-        }
-        if (tempCommitLHM.getCommits().get(commitName).getBlobs().
-                containsKey(fileName)) {
-            String checkedFileSHA = tempCommitLHM.getCommits().
-                    get(commitName).getBlobs().get(fileName);
-            File outCheckedFile = new File(BLOBS + "/" + checkedFileSHA);
-            String readCheckedString
-                    = Utils.readContentsAsString(outCheckedFile);
-            File cwd = new File(".");
-            Utils.writeContents(Utils.join(cwd, fileName), readCheckedString);
-            System.exit(0);
+     * @param path  Takes in a file path. */
+    public void checkoutCommit(String commitName, String path) {
+        String fileName = relativePath(new File(path));
+        String fullName = CommitStore.resolve(commitName);
+        if (fullName == null) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        Commit commit = CommitStore.read(fullName);
+        if (!commit.getBlobs().containsKey(fileName)) {
+            throw Utils.error("File does not exist in that commit.");
+        }
+        if (commit.getBlobs().containsKey(fileName)) {
+            String checkedFileSHA = commit.getBlobs().get(fileName);
+            BlobStore.checkout(checkedFileSHA, Utils.join(CWD, fileName));
+            return;
         }
     }
 
@@ -330,92 +400,32 @@ public class Objects implements Serializable {
     /** Finds all commits with the given message.
      * @param message The commit message to be found. */
     public void find(String message) {
-        LinkedHM tempCommitLHM = Utils.readObject(COMMITSMAP, LinkedHM.class);
-        Collection<Commit> commitCollection
-                = tempCommitLHM.getCommits().values();
-        ArrayList<String> commitSHA = new ArrayList<>();
-        for (Commit commitMessage : commitCollection) {
-            if (commitMessage.getMessage().equals(message)) {
-                commitSHA.add(commitMessage.getCommitSHA());
-            }
-        }
-        if (commitSHA.size() == 0) {
-            System.out.println("Found no commit with that message.");
-        }
-        Collections.sort(commitSHA);
-        for (String commitMessage : commitSHA) {
-            System.out.println(commitMessage);
-        }
+        printFound(MessageIndex.get().find(message));
     }
 
-    /** Runs the tests for the edge cases for Modifications in Status. */
-    public void statusModificationsCheck() {
-        Staged stagingArea = Utils.readObject(STAGEDFILE, Staged.class);
-        for (File file : CWD.listFiles()) {
-            if (file.isFile()) {
-                if (getHead2().getBlobs().containsKey(file.getName())
-                        && !getHead2().getBlobs().
-                        containsValue(fileSHA(file))) {
-                    System.out.println(file.getName() + " (modified)");
-                }
-                if (stagingArea.getAdded().containsKey(file.getName())
-                        && !stagingArea.getAdded().containsValue(fileSHA(file))) {
-                    System.out.println(file.getName() + " (modified)");
-                }
-                if (!file.exists()
-                        && stagingArea.getAdded().containsKey(file.getName())) {      //!file.exists() &&
-                     System.out.println(file.getName() + " (deleted)");
-                }
-                if (!file.exists()
-                        && !stagingArea.getRemoved().contains(file.getName())
-                        && !getHead2().getBlobs().containsKey(fileSHA(file))) {
-                    System.out.println(file.getName() + " (deleted)");
-                }
-//                if (!Utils.join(BLOBS, fileSHA(file)).exists()) {
-//                    System.out.println(file.getName());
-//                }
-            }
+    /** Finds all commits whose messages contain the given text.
+     * @param text The text to be found. */
+    public void findContaining(String text) {
+        printFound(MessageIndex.get().findContaining(text));
+    }
+
+    /** Prints the commits found by a search.
+     * @param found Their IDs, in sorted order. */
+    private static void printFound(List<String> found) {
+        if (found.isEmpty()) {
+            System.out.println("Found no commit with that message.");
+        }
+        for (String sha : found) {
+            System.out.println(sha);
         }
     }
 
-    /** Displays what branches currently exist. */
+    /** Displays what branches currently exist, the staged and removed
+     * files, and the working files that differ from the head commit. */
     public void status() {
-        Commit head = getHead2();
-        System.out.println("=== Branches ===");
-        for (String branches : Utils.plainFilenamesIn(BRANCHES)) {
-            if (branches.equals(Utils.readContentsAsString(HEAD))) {
-                System.out.print("*");
-            }
-            System.out.println(branches);
-        }
-        System.out.println();
-        System.out.println("=== Staged Files ===");
-        Staged stagingArea = Utils.readObject(STAGEDFILE, Staged.class);
-        for (String added : stagingArea.getAdded().keySet()) {
-            System.out.println(added);
-        }
-        System.out.println();
-        System.out.println("=== Removed Files ===");
-        for (String deleted : stagingArea.getRemoved()) {
-            System.out.println(deleted);
-        }
-        System.out.println();
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        statusModificationsCheck();
-        System.out.println();
-        System.out.println("=== Untracked Files ===");
-        for (File file: CWD.listFiles()) {
-            if (file.isFile()) {
-//                if (file.exists()
-                   if(!getHead2().getBlobs().containsKey(file.getName())
-                           && !Utils.join(BLOBS, fileSHA(file)).exists()
-                           && !stagingArea.getAdded().
-                           containsKey(file.getName())) {
-                       System.out.println(file.getName());
-                }
-            }
-        }
-        System.out.println();
+        Staged stagingArea = Staged.read(STAGEDFILE);
+        new Status(getHead2(), stagingArea).print(
+                Utils.readContentsAsString(HEAD));
     }
 
     /** Creates a new branch with the given name.
@@ -427,7 +437,7 @@ public class Objects implements Serializable {
         if (branch.exists()) {
             System.out.println("A branch with that name already exists.");
         } else {
-            Utils.writeContents(branch, newBranchCommit);
+            Journal.write(branch, newBranchCommit);
         }
     }
 
@@ -436,63 +446,163 @@ public class Objects implements Serializable {
     public void rmBranch(String branchName) {
         File branch = Utils.join(BRANCHES, branchName);
         if (Utils.readContentsAsString(HEAD).equals(branchName)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw Utils.error("Cannot remove the current branch.");
         }
         for (File fileName : BRANCHES.listFiles()) {
             if (fileName.equals(branch)) {
                 branch.delete();
-                System.exit(0);
+                return;
             }
         }
         System.out.println("A branch with that name does not exist. ");
     }
 
     /** Checks out all the files tracked by the given commit.
-     * @param commitID The name of the commit. */
+     * @param commitID The full or abbreviated ID of the commit. */
     public void reset(String commitID) {
-        LinkedHM commits = Utils.readObject(COMMITSMAP, LinkedHM.class);
-        Commit commitToReset = commits.getCommits().get(commitID);
-        Staged stagingArea = Utils.readObject(STAGEDFILE, Staged.class);
-        if (!commits.getCommits().containsKey(commitID)) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
-        for (File file: CWD.listFiles()) {
-            if (file.isFile()) {
-                if (!Utils.join(BLOBS, fileSHA(file)).exists()) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    System.exit(0);
+        Commit commitToReset = CommitStore.read(CommitStore.resolve(commitID));
+        Staged stagingArea = Staged.read(STAGEDFILE);
+        if (commitToReset == null) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        Commit head = getHead2();
+        checkUntracked(head, stagingArea, commitToReset.getBlobs());
+        new Checkout().run(head, commitToReset,
+                knownWorkingFiles(head, stagingArea));
+        stagingArea.clear();
+        stagingArea.write(STAGEDFILE);
+        File headBranch = new File(BRANCHES
+                + "/" + Utils.readContentsAsString(HEAD));
+        Journal.write(headBranch, commitToReset.getCommitSHA());
+    }
+
+    /** Packs loose commits and blobs, and any existing packs, into a
+     * single delta-compressed pack. */
+    public void gc() {
+        Pack.repack();
+    }
+
+    /** Merges files from the given branch into the current branch.
+     * @param branchName The name of the branch to merge in. */
+    public void merge(String branchName) {
+        Staged stagingArea = Staged.read(STAGEDFILE);
+        if (!stagingArea.getAdded().isEmpty()
+                || !stagingArea.getRemoved().isEmpty()) {
+            throw Utils.error("You have uncommitted changes.");
+        }
+        File branch = Utils.join(BRANCHES, branchName);
+        if (!branch.exists()) {
+            throw Utils.error("A branch with that name does not exist.");
+        }
+        String currentBranch = Utils.readContentsAsString(HEAD);
+        if (currentBranch.equals(branchName)) {
+            throw Utils.error("Cannot merge a branch with itself.");
+        }
+        Commit head = getHead2();
+        Commit other = CommitStore.read(Utils.readContentsAsString(branch));
+        CommitGraph graph = CommitGraph.containing(head.getCommitSHA(),
+                other.getCommitSHA());
+        int headPos = graph.position(head.getCommitSHA());
+        int otherPos = graph.position(other.getCommitSHA());
+        int split = graph.splitPoint(headPos, otherPos);
+        File headBranch = Utils.join(BRANCHES, currentBranch);
+        if (split == otherPos) {
+            System.out.println("Given branch is an ancestor of the "
+                    + "current branch.");
+            return;
+        }
+        if (split == headPos) {
+            checkUntracked(head, stagingArea, other.getBlobs());
+            new Checkout().run(head, other,
+                    knownWorkingFiles(head, stagingArea));
+            Journal.write(headBranch, other.getCommitSHA());
+            System.out.println("Current branch fast-forwarded.");
+            return;
+        }
+        Map<String, String> base = split == CommitGraph.NONE
+                ? new LinkedHashMap<>()
+                : CommitStore.read(graph.id(split)).getBlobs();
+        Map<String, String> ours = head.getBlobs();
+        Map<String, String> theirs = other.getBlobs();
+        TreeSet<String> paths = new TreeSet<>(base.keySet());
+        paths.addAll(ours.keySet());
+        paths.addAll(theirs.keySet());
+        LinkedHashMap<String, String> changes = new LinkedHashMap<>();
+        LinkedHashMap<String, String> writes = new LinkedHashMap<>();
+        ArrayList<String> deletes = new ArrayList<>();
+        ArrayList<String> conflicts = new ArrayList<>();
+        LinkedHashMap<String, String> incoming = new LinkedHashMap<>();
+        for (String path : paths) {
+            String original = base.get(path);
+            String mine = ours.get(path);
+            String given = theirs.get(path);
+            if (same(mine, given) || same(original, given)) {
+                continue;
+            }
+            incoming.put(path, given);
+            if (same(original, mine)) {
+                changes.put(path, given);
+                if (given == null) {
+                    deletes.add(path);
+                } else {
+                    writes.put(path, given);
                 }
+            } else {
+                conflicts.add(path);
             }
         }
-        for (String blob : commitToReset.getBlobs().keySet()) {
-            Utils.writeContents(Utils.join(CWD, blob),
-                    Utils.readContentsAsString(Utils.join(BLOBS,
-                            commitToReset.getBlobs().get(blob))));
+        checkUntracked(head, stagingArea, incoming);
+        for (String path : conflicts) {
+            changes.put(path, writeConflict(path, ours.get(path),
+                    theirs.get(path)));
         }
-        for (String filename: getHead2().getBlobs().keySet()) {
-            if (!commitToReset.getBlobs().containsKey(filename)) {
-                Utils.restrictedDelete(Utils.join(CWD, filename));
-            }
+        new Checkout().run(writes, deletes);
+        Commit merged = new Commit("Merged " + branchName + " into "
+                + currentBranch + ".", head.getCommitSHA(),
+                other.getCommitSHA(), Tree.update(head.getTree(), changes));
+        CommitStore.write(merged);
+        Journal.write(headBranch, merged.getCommitSHA());
+        if (!conflicts.isEmpty()) {
+            System.out.println("Encountered a merge conflict.");
         }
-        stagingArea.clear();
-        Utils.writeObject(STAGEDFILE, stagingArea);
-        File headBranch = new File(BRANCHES
-                + "/" + Utils.readContentsAsString(HEAD));
-        Utils.writeContents(headBranch, commitID);
     }
 
-//    /** Merges files from the given branch into the current branch. */
-//    public void merge(String branchName) {
-//
-//    }
+    /** Checks whether two blob IDs, either of which may be null for an
+     * absent file, are the same.
+     * @param a One blob ID.
+     * @param b The other blob ID.
+     * @return True if both are null or they are equal. */
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /** Writes a file holding both versions of a file changed in
+     * conflicting ways, and stores it as a blob.
+     * @param path The path of the file.
+     * @param mine The blob ID in the current branch, or null.
+     * @param given The blob ID in the given branch, or null.
+     * @return The blob ID of the written file. */
+    private String writeConflict(String path, String mine, String given) {
+        File file = Utils.join(CWD, path);
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        Utils.writeContents(file, "<<<<<<< HEAD\n",
+                mine == null ? new byte[0] : BlobStore.readContents(mine),
+                "=======\n",
+                given == null ? new byte[0] : BlobStore.readContents(given),
+                ">>>>>>>\n");
+        return Index.get().store(file);
+    }
 
 
     /** Creates a current working directory. */
     static final File CWD = new File(System.getProperty("user.dir"));
 
+    /** Config key giving the number of threads add hashes files on. */
+    static final String ADD_THREADS_KEY = "add.threads";
+
+    /** Characters that make a path given to add a glob pattern. */
+    private static final Pattern GLOB_CHARS = Pattern.compile("[*?\\[{]");
+
     /** Creates the hidden .gitlet folder that stores all metadata. */
     static final File GITLET = Utils.join(CWD, ".gitlet");
 
@@ -523,7 +633,8 @@ public class Objects implements Serializable {
     /** Creates a Staging Area File. */
     static final File STAGEDFILE = Utils.join(STAGING_AREA, "stagingFiles");
 
-    /** Creates a folder to store the HashMap of Commits. */
+    /** The pre-object-store file holding the HashMap of Commits; only
+     * read to migrate older repositories. */
     static final File COMMITSMAP = Utils.join(COMMIT, "commitsMap.txt");
 
 
@@ -0,0 +1,807 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** A pack: many commits, trees and blobs stored in one file, together with a
+ * sorted index for binary-search lookup by SHA-1 ID.
+ *
+ * The pack file is PACK_MAGIC followed by the entries. Each entry is a
+ * type byte, the 20-byte ID of its base object if it is a DELTA, the
+ * 8-byte length of its payload, and the payload as a deflate stream.
+ * The payload of a COMMIT or TREE is its stored form, that of a BLOB the
+ * original file contents, and that of a DELTA the instructions that
+ * rebuild a blob from its base (see delta()).
+ *
+ * The index file is INDEX_MAGIC, then a fan-out table of 256 4-byte
+ * counts of the IDs whose first byte is at most each value, then the
+ * sorted 20-byte IDs, then the 8-byte offsets of their entries, then
+ * the 1-byte types of their entries.
+ * @author Daniel Bostwick */
+public class Pack {
+
+    /** Entry type of a commit. */
+    static final byte COMMIT = 1;
+
+    /** Entry type of a blob stored whole. */
+    static final byte BLOB = 2;
+
+    /** Entry type of a blob stored as a delta against another blob. */
+    static final byte DELTA = 3;
+
+    /** Entry type of a tree. */
+    static final byte TREE = 4;
+
+    /** Delta instruction copying a range of the base. */
+    static final byte COPY = 1;
+
+    /** Delta instruction inserting literal bytes. */
+    static final byte INSERT = 2;
+
+    /** Start of every pack file. */
+    static final byte[] PACK_MAGIC = {'G', 'P', 'K', '1'};
+
+    /** Start of every pack index file. */
+    static final byte[] INDEX_MAGIC = {'G', 'P', 'I', '1'};
+
+    /** Number of entries in the fan-out table. */
+    static final int FANOUT_SIZE = 256;
+
+    /** Size of the blocks matched between a blob and its delta base. */
+    static final int BLOCK = 16;
+
+    /** Longest chain of deltas needed to rebuild a blob. */
+    static final int MAX_DEPTH = 10;
+
+    /** Blobs larger than this are always stored whole. */
+    static final long DELTA_LIMIT = 16 * 1024 * 1024;
+
+    /** Opens the pack whose index file is INDEX.
+     * @param index A pack index file. */
+    Pack(File index) {
+        String name = index.getName();
+        this.packFile = Utils.join(index.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel channel = FileChannel.open(index.toPath())) {
+            this.table = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] magic = new byte[INDEX_MAGIC.length];
+        table.get(0, magic);
+        if (!Arrays.equals(magic, INDEX_MAGIC)) {
+            throw Utils.error("Corrupt pack index %s", name);
+        }
+        this.count = table.getInt(fanoutPos(FANOUT_SIZE - 1));
+    }
+
+    /* LOOKUP ACROSS ALL PACKS */
+
+    /** Gets every pack in the repository, opening them on first use.
+     * @return The packs. */
+    static synchronized List<Pack> all() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(PACKS);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(new Pack(Utils.join(PACKS, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forgets the opened packs so that all() rereads PACKS. */
+    static synchronized void reload() {
+        packs = null;
+    }
+
+    /** Finds the pack holding an object.
+     * @param sha The object's SHA-1 ID.
+     * @return The pack, or null if no pack holds the object. */
+    static Pack find(String sha) {
+        if (sha == null || sha.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        byte[] id = Utils.idBytes(sha);
+        for (Pack pack : all()) {
+            if (pack.position(id) >= 0) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Checks whether any pack holds an object.
+     * @param sha The object's SHA-1 ID.
+     * @return True if the object is packed. */
+    static boolean contains(String sha) {
+        return find(sha) != null;
+    }
+
+    /** Gets the contents of a packed object.
+     * @param sha The object's SHA-1 ID.
+     * @return The contents, or null if no pack holds the object. */
+    static byte[] readBytes(String sha) {
+        Pack pack = find(sha);
+        return pack == null ? null : pack.read(sha);
+    }
+
+    /** Gets the size of the contents of a packed object, read from its
+     * entry rather than its contents.
+     * @param sha The object's SHA-1 ID.
+     * @return The size in bytes, or -1 if no pack holds the object. */
+    static long size(String sha) {
+        Pack pack = find(sha);
+        return pack == null ? -1 : pack.sizeOf(sha);
+    }
+
+    /** Opens the contents of a packed object. Blobs stored whole are
+     * streamed rather than read into memory.
+     * @param sha The object's SHA-1 ID.
+     * @return A stream of the contents, or null if no pack holds it. */
+    static InputStream open(String sha) {
+        Pack pack = find(sha);
+        return pack == null ? null : pack.stream(sha);
+    }
+
+    /** Lists the packed IDs starting with PREFIX.
+     * @param prefix Leading hex digits of the wanted IDs.
+     * @param type The entry type wanted; DELTA and BLOB both match BLOB.
+     * @return The matching IDs. */
+    static TreeSet<String> ids(String prefix, byte type) {
+        TreeSet<String> result = new TreeSet<>();
+        for (Pack pack : all()) {
+            int lo = 0, hi = pack.count;
+            if (prefix.length() >= 2) {
+                int first = Integer.parseInt(prefix.substring(0, 2), 16);
+                lo = first == 0 ? 0 : pack.table.getInt(fanoutPos(first - 1));
+                hi = pack.table.getInt(fanoutPos(first));
+            }
+            for (int i = lo; i < hi; i += 1) {
+                String sha = pack.idAt(i);
+                if (sha.startsWith(prefix)
+                        && pack.typeMatches(i, type)) {
+                    result.add(sha);
+                }
+            }
+        }
+        return result;
+    }
+
+    /* READING ONE PACK */
+
+    /** Gets the position of ID in this pack's sorted index.
+     * @param id A binary SHA-1 ID.
+     * @return Its position, or -1 if the pack does not hold it. */
+    int position(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : table.getInt(fanoutPos(first - 1));
+        int hi = table.getInt(fanoutPos(first)) - 1;
+        byte[] probe = new byte[Utils.ID_BYTES];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            table.get(idPos(mid), probe);
+            int cmp = Arrays.compareUnsigned(probe, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Gets the number of objects in this pack.
+     * @return count. */
+    int size() {
+        return count;
+    }
+
+    /** Gets the ID at position I of the index.
+     * @param i A position.
+     * @return The hexadecimal ID. */
+    String idAt(int i) {
+        byte[] id = new byte[Utils.ID_BYTES];
+        table.get(idPos(i), id);
+        return Utils.hex(id);
+    }
+
+    /** Gets the offset in the pack file of the entry at position I.
+     * @param i A position.
+     * @return The offset. */
+    long offsetAt(int i) {
+        return table.getLong(idPos(count) + i * Long.BYTES);
+    }
+
+    /** Gets the type of the entry at position I.
+     * @param i A position.
+     * @return COMMIT, BLOB, DELTA or TREE. */
+    byte typeAt(int i) {
+        return table.get(idPos(count) + count * Long.BYTES + i);
+    }
+
+    /** Checks whether the entry at position I is of type TYPE.
+     * @param i A position.
+     * @param type COMMIT, BLOB or TREE.
+     * @return True if it matches. */
+    boolean typeMatches(int i, byte type) {
+        byte actual = typeAt(i);
+        return actual == type || (type == BLOB && actual == DELTA);
+    }
+
+    /** Gets the contents of an object in this pack, applying deltas.
+     * @param sha The object's SHA-1 ID.
+     * @return The contents. */
+    byte[] read(String sha) {
+        long start = Stats.start();
+        int i = position(Utils.idBytes(sha));
+        try (RandomAccessFile file = new RandomAccessFile(packFile, "r")) {
+            file.seek(offsetAt(i));
+            byte type = file.readByte();
+            String base = null;
+            if (type == DELTA) {
+                byte[] baseId = new byte[Utils.ID_BYTES];
+                file.readFully(baseId);
+                base = Utils.hex(baseId);
+            }
+            long length = file.readLong();
+            if (length > Integer.MAX_VALUE - 8) {
+                throw Utils.error("Object %s is too large to read whole", sha);
+            }
+            byte[] payload;
+            try (InputStream in = new InflaterInputStream(
+                    Channels.newInputStream(file.getChannel()))) {
+                payload = in.readNBytes((int) length);
+            }
+            Stats.record(Stats.READ, payload.length, start);
+            if (type != DELTA) {
+                return payload;
+            }
+            byte[] baseContents = readBytes(base);
+            if (baseContents == null) {
+                throw Utils.error("Missing delta base %s", base);
+            }
+            return applyDelta(baseContents, payload);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Gets the size of the contents of an object in this pack from its
+     * entry, without reading the contents. For a DELTA entry this is the
+     * length recorded at the start of the delta.
+     * @param sha The object's SHA-1 ID.
+     * @return The size in bytes. */
+    long sizeOf(String sha) {
+        int i = position(Utils.idBytes(sha));
+        try (RandomAccessFile file = new RandomAccessFile(packFile, "r")) {
+            file.seek(offsetAt(i));
+            byte type = file.readByte();
+            if (type == DELTA) {
+                file.skipBytes(Utils.ID_BYTES);
+            }
+            long length = file.readLong();
+            if (type != DELTA) {
+                return length;
+            }
+            try (DataInputStream delta = new DataInputStream(
+                    new InflaterInputStream(Channels.newInputStream(
+                            file.getChannel())))) {
+                return delta.readInt();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Opens the contents of an object in this pack.
+     * @param sha The object's SHA-1 ID.
+     * @return A stream of the contents. */
+    InputStream stream(String sha) {
+        int i = position(Utils.idBytes(sha));
+        try {
+            RandomAccessFile file = new RandomAccessFile(packFile, "r");
+            file.seek(offsetAt(i));
+            if (file.readByte() == DELTA) {
+                file.close();
+                return new ByteArrayInputStream(read(sha));
+            }
+            file.readLong();
+            return new InflaterInputStream(Channels.newInputStream(
+                    file.getChannel()), new Inflater(), Utils.CHUNK_SIZE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* WRITING PACKS */
+
+    /** Packs every commit, tree and blob, loose or already packed, into one new
+     * pack, storing each version of a file as a delta against the next
+     * newer version where that saves space. Packed loose objects and the
+     * old packs are then removed. */
+    static void repack() {
+        LinkedHashMap<String, byte[]> commits = new LinkedHashMap<>();
+        LinkedHashMap<String, byte[]> trees = new LinkedHashMap<>();
+        TreeMap<String, List<String>> versions = new TreeMap<>();
+        HashSet<String> seenBlobs = new HashSet<>();
+        for (String sha : newestFirst()) {
+            Commit commit = CommitStore.read(sha);
+            commits.put(sha, CommitStore.readBytes(sha));
+            collectTrees(commit.getTree(), trees);
+            for (Map.Entry<String, String> blob
+                    : commit.getBlobs().entrySet()) {
+                if (seenBlobs.add(blob.getValue())) {
+                    versions.computeIfAbsent(blob.getKey(),
+                            k -> new ArrayList<>()).add(blob.getValue());
+                }
+            }
+        }
+        List<String> loose = Utils.plainFilenamesIn(Objects.BLOBS);
+        for (String sha : loose) {
+            if (sha.length() == Utils.UID_LENGTH && seenBlobs.add(sha)) {
+                versions.computeIfAbsent("", k -> new ArrayList<>()).add(sha);
+            }
+        }
+        for (String sha : ids("", BLOB)) {
+            if (seenBlobs.add(sha)) {
+                versions.computeIfAbsent("", k -> new ArrayList<>()).add(sha);
+            }
+        }
+        if (commits.isEmpty() && seenBlobs.isEmpty()) {
+            return;
+        }
+        PACKS.mkdir();
+        File created = write(commits, trees, versions);
+        List<Pack> old = all();
+        for (Pack pack : old) {
+            if (!pack.packFile.equals(created)) {
+                pack.packFile.delete();
+                File index = Utils.join(PACKS, pack.packFile.getName()
+                        .replace(".pack", ".idx"));
+                index.delete();
+            }
+        }
+        reload();
+        for (String sha : commits.keySet()) {
+            CommitStore.objectFile(sha).delete();
+            CommitStore.objectFile(sha).getParentFile().delete();
+        }
+        for (String sha : trees.keySet()) {
+            Tree.objectFile(sha).delete();
+            Tree.objectFile(sha).getParentFile().delete();
+        }
+        for (String sha : loose) {
+            if (contains(sha)) {
+                BlobStore.blobFile(sha).delete();
+            }
+        }
+    }
+
+    /** Adds tree SHA and the trees under it to TREES, skipping trees
+     * already there.
+     * @param sha The SHA-1 ID of a tree.
+     * @param trees Serialized trees by ID. */
+    private static void collectTrees(String sha,
+                                     Map<String, byte[]> trees) {
+        if (trees.containsKey(sha)) {
+            return;
+        }
+        trees.put(sha, Tree.readBytes(sha));
+        for (String sub : Tree.read(sha).getTrees().values()) {
+            collectTrees(sub, trees);
+        }
+    }
+
+    /** Lists every commit ID, those reachable from a branch first in the
+     * order they are met walking back from each branch head.
+     * @return The commit IDs. */
+    private static List<String> newestFirst() {
+        LinkedHashMap<String, Boolean> order = new LinkedHashMap<>();
+        for (String branch : Utils.plainFilenamesIn(Objects.BRANCHES)) {
+            String sha = Utils.readContentsAsString(
+                    Utils.join(Objects.BRANCHES, branch));
+            while (sha != null && !order.containsKey(sha)) {
+                order.put(sha, true);
+                Commit commit = CommitStore.read(sha);
+                sha = commit == null ? null : commit.getParent();
+            }
+        }
+        for (String sha : CommitStore.ids()) {
+            order.putIfAbsent(sha, true);
+        }
+        return new ArrayList<>(order.keySet());
+    }
+
+    /** Writes a new pack and its index.
+     * @param commits Serialized commits by ID.
+     * @param trees Serialized trees by ID.
+     * @param versions The blob IDs of each file name, newest first.
+     * @return The new pack file. */
+    private static File write(Map<String, byte[]> commits,
+                              Map<String, byte[]> trees,
+                              Map<String, List<String>> versions) {
+        TreeMap<String, Long> offsets = new TreeMap<>();
+        TreeMap<String, Byte> types = new TreeMap<>();
+        Deflater deflater = new Deflater();
+        try {
+            File temp = File.createTempFile("pack", ".tmp", PACKS);
+            try (CountingOutputStream out = new CountingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            temp.toPath()), Utils.CHUNK_SIZE))) {
+                out.write(PACK_MAGIC);
+                for (Map.Entry<String, byte[]> commit : commits.entrySet()) {
+                    offsets.put(commit.getKey(), out.count);
+                    types.put(commit.getKey(), COMMIT);
+                    writeWhole(out, deflater, COMMIT, commit.getValue());
+                }
+                for (Map.Entry<String, byte[]> tree : trees.entrySet()) {
+                    offsets.put(tree.getKey(), out.count);
+                    types.put(tree.getKey(), TREE);
+                    writeWhole(out, deflater, TREE, tree.getValue());
+                }
+                for (List<String> shas : versions.values()) {
+                    byte[] base = null;
+                    String baseSHA = null;
+                    int depth = 0;
+                    for (String sha : shas) {
+                        offsets.put(sha, out.count);
+                        byte[] contents = deltaCandidate(sha);
+                        byte[] delta = null;
+                        if (base != null && contents != null
+                                && depth < MAX_DEPTH) {
+                            delta = delta(base, contents);
+                            if (delta.length > contents.length / 2) {
+                                delta = null;
+                            }
+                        }
+                        if (delta != null) {
+                            writeDelta(out, deflater, baseSHA, delta);
+                            types.put(sha, DELTA);
+                            depth += 1;
+                        } else if (contents != null) {
+                            writeWhole(out, deflater, BLOB, contents);
+                            types.put(sha, BLOB);
+                            depth = 0;
+                        } else {
+                            writeStream(out, deflater, sha);
+                            types.put(sha, BLOB);
+                            depth = 0;
+                        }
+                        base = contents;
+                        baseSHA = sha;
+                    }
+                }
+            }
+            String name = "pack-" + Utils.sha1(String.join("",
+                    offsets.keySet()));
+            File index = writeIndex(offsets, types);
+            File pack = Utils.join(PACKS, name + ".pack");
+            Files.move(temp.toPath(), pack.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.move(index.toPath(), Utils.join(PACKS, name + ".idx")
+                    .toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Utils.fsync(pack);
+            Utils.fsync(Utils.join(PACKS, name + ".idx"));
+            Utils.fsync(PACKS);
+            return pack;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Gets the contents of a blob if it is small enough to delta. The
+     * size of a packed blob is read from its entry first, and no more
+     * than DELTA_LIMIT bytes of any blob are ever held in memory.
+     * @param sha The blob's SHA-1 ID.
+     * @return The contents, or null if the blob is too large. */
+    private static byte[] deltaCandidate(String sha) {
+        File loose = BlobStore.blobFile(sha);
+        long size = loose.isFile() ? loose.length() : size(sha);
+        if (size > DELTA_LIMIT) {
+            return null;
+        }
+        try (InputStream in = BlobStore.open(sha)) {
+            byte[] contents = in.readNBytes((int) DELTA_LIMIT + 1);
+            return contents.length > DELTA_LIMIT ? null : contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes an entry holding CONTENTS whole.
+     * @param out The pack stream.
+     * @param deflater The compressor.
+     * @param type COMMIT or BLOB.
+     * @param contents The object's contents. */
+    private static void writeWhole(OutputStream out, Deflater deflater,
+                                   byte type, byte[] contents)
+            throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeByte(type);
+        header.writeLong(contents.length);
+        DeflaterOutputStream body = new DeflaterOutputStream(out, deflater);
+        body.write(contents);
+        body.finish();
+        deflater.reset();
+    }
+
+    /** Writes a whole BLOB entry, streaming its contents from the blob
+     * store.
+     * @param out The pack stream.
+     * @param deflater The compressor.
+     * @param sha The blob's SHA-1 ID. */
+    private static void writeStream(OutputStream out, Deflater deflater,
+                                    String sha) throws IOException {
+        File counted = File.createTempFile("blob", ".tmp", PACKS);
+        try {
+            long length;
+            try (InputStream in = BlobStore.open(sha)) {
+                length = Files.copy(in, counted.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeByte(BLOB);
+            header.writeLong(length);
+            DeflaterOutputStream body = new DeflaterOutputStream(out,
+                    deflater, Utils.CHUNK_SIZE);
+            Files.copy(counted.toPath(), body);
+            body.finish();
+            deflater.reset();
+        } finally {
+            counted.delete();
+        }
+    }
+
+    /** Writes a DELTA entry.
+     * @param out The pack stream.
+     * @param deflater The compressor.
+     * @param base The SHA-1 ID of the delta's base.
+     * @param delta The delta instructions. */
+    private static void writeDelta(OutputStream out, Deflater deflater,
+                                   String base, byte[] delta)
+            throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeByte(DELTA);
+        header.write(Utils.idBytes(base));
+        header.writeLong(delta.length);
+        DeflaterOutputStream body = new DeflaterOutputStream(out, deflater);
+        body.write(delta);
+        body.finish();
+        deflater.reset();
+    }
+
+    /** Writes the index of a new pack to a temporary file.
+     * @param offsets The entry offset of each ID, in sorted order.
+     * @param types The entry type of each ID, in sorted order.
+     * @return The temporary index file. */
+    private static File writeIndex(TreeMap<String, Long> offsets,
+                                   TreeMap<String, Byte> types)
+            throws IOException {
+        File temp = File.createTempFile("idx", ".tmp", PACKS);
+        int[] fanout = new int[FANOUT_SIZE];
+        for (String sha : offsets.keySet()) {
+            fanout[Integer.parseInt(sha.substring(0, 2), 16)] += 1;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(temp.toPath())))) {
+            out.write(INDEX_MAGIC);
+            int total = 0;
+            for (int n : fanout) {
+                total += n;
+                out.writeInt(total);
+            }
+            for (String sha : offsets.keySet()) {
+                out.write(Utils.idBytes(sha));
+            }
+            for (long offset : offsets.values()) {
+                out.writeLong(offset);
+            }
+            for (byte type : types.values()) {
+                out.writeByte(type);
+            }
+        }
+        return temp;
+    }
+
+    /** An output stream that counts the bytes written through it. */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        /** A counting stream writing to OUT.
+         * @param out The underlying stream. */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        /** Bytes written so far. */
+        private long count;
+    }
+
+    /* DELTAS */
+
+    /** Computes the instructions that rebuild TARGET from BASE: a 4-byte
+     * length of TARGET followed by COPY (4-byte offset into BASE, 4-byte
+     * length) and INSERT (4-byte length, literal bytes) instructions.
+     * Matches are found by indexing BASE in BLOCK-sized pieces.
+     * @param base The delta base.
+     * @param target The contents to be rebuilt.
+     * @return The delta. */
+    static byte[] delta(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(blockHash(base, i), i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(target.length);
+            int pending = 0;
+            int i = 0;
+            while (i + BLOCK <= target.length) {
+                Integer at = blocks.get(blockHash(target, i));
+                if (at == null || !Arrays.equals(base, at, at + BLOCK,
+                        target, i, i + BLOCK)) {
+                    i += 1;
+                    continue;
+                }
+                int start = at;
+                int length = BLOCK;
+                while (start > 0 && i > pending
+                        && base[start - 1] == target[i - 1]) {
+                    start -= 1;
+                    i -= 1;
+                    length += 1;
+                }
+                while (start + length < base.length
+                        && i + length < target.length
+                        && base[start + length] == target[i + length]) {
+                    length += 1;
+                }
+                insert(out, target, pending, i);
+                out.writeByte(COPY);
+                out.writeInt(start);
+                out.writeInt(length);
+                i += length;
+                pending = i;
+            }
+            insert(out, target, pending, target.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Rebuilds contents from a delta.
+     * @param base The delta base.
+     * @param delta Instructions made by delta().
+     * @return The rebuilt contents. */
+    static byte[] applyDelta(byte[] base, byte[] delta) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(delta))) {
+            byte[] result = new byte[in.readInt()];
+            int pos = 0;
+            while (in.available() > 0) {
+                byte op = in.readByte();
+                if (op == COPY) {
+                    int start = in.readInt();
+                    int length = in.readInt();
+                    System.arraycopy(base, start, result, pos, length);
+                    pos += length;
+                } else if (op == INSERT) {
+                    int length = in.readInt();
+                    in.readFully(result, pos, length);
+                    pos += length;
+                } else {
+                    throw Utils.error("Corrupt delta");
+                }
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes an INSERT of TARGET[FROM..TO), if it is not empty.
+     * @param out The delta stream.
+     * @param target The contents being rebuilt.
+     * @param from Start of the literal bytes.
+     * @param to End of the literal bytes. */
+    private static void insert(DataOutputStream out, byte[] target,
+                               int from, int to) throws IOException {
+        if (to > from) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Hashes the BLOCK bytes of DATA starting at START.
+     * @param data Some contents.
+     * @param start Start of the block.
+     * @return The block's hash. */
+    private static int blockHash(byte[] data, int start) {
+        int hash = 1;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+
+    /** Gets the index position of fan-out entry I.
+     * @param i A first ID byte.
+     * @return The byte position. */
+    private static int fanoutPos(int i) {
+        return INDEX_MAGIC.length + i * Integer.BYTES;
+    }
+
+    /** Gets the index position of the ID at position I.
+     * @param i A position.
+     * @return The byte position. */
+    private static int idPos(int i) {
+        return fanoutPos(FANOUT_SIZE) + i * Utils.ID_BYTES;
+    }
+
+    /** The directory holding packs. */
+    static final File PACKS = Utils.join(Objects.GITLET, "packs");
+
+    /** The packs opened by this process. */
+    private static List<Pack> packs;
+
+    /** The pack file. */
+    private final File packFile;
+
+    /** The mapped index file. */
+    private final MappedByteBuffer table;
+
+    /** Number of objects in the pack. */
+    private final int count;
+}
@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/** A lock on the whole repository, held for the length of a command so
+ * that concurrent Gitlet processes cannot interleave their updates.
+ * Commands that only read take a shared lock, so any number of them
+ * run at once; commands that write take an exclusive lock. The lock is
+ * an operating-system lock on .gitlet/lock, which is released even if
+ * the process dies. A command waits for the lock for at most the
+ * number of milliseconds set by lock.timeout in the config.
+ * @author Daniel Bostwick */
+public class RepoLock implements AutoCloseable {
+
+    /** Config key giving the longest wait for the lock, in
+     * milliseconds. */
+    static final String TIMEOUT_KEY = "lock.timeout";
+
+    /** Default for TIMEOUT_KEY. */
+    static final int DEFAULT_TIMEOUT = 10000;
+
+    /** Longest pause between attempts to take a contended lock, in
+     * milliseconds. */
+    static final long MAX_BACKOFF = 50;
+
+    /** Takes the repository lock, waiting while another process holds
+     * it in a conflicting mode. Does nothing before the repository
+     * exists.
+     * @param shared True for a shared lock, false for an exclusive one.
+     * @return The lock, to be closed when the command is done. */
+    static RepoLock acquire(boolean shared) {
+        if (!Objects.GITLET.isDirectory()) {
+            return new RepoLock(null, null);
+        }
+        long timeout = Config.getInt(TIMEOUT_KEY, DEFAULT_TIMEOUT);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(LOCKFILE.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long start = System.nanoTime();
+            long deadline = start + timeout * 1000000L;
+            long backoff = 1;
+            boolean waited = false;
+            while (true) {
+                FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+                long now = System.nanoTime();
+                if (lock != null) {
+                    record(now - start, waited);
+                    return new RepoLock(channel, lock);
+                }
+                waited = true;
+                if (now >= deadline) {
+                    record(now - start, true);
+                    channel.close();
+                    throw Utils.error("Another Gitlet command is using this "
+                            + "repository; gave up after %d ms.", timeout);
+                }
+                Thread.sleep(Math.min(backoff,
+                        Math.max(1, (deadline - now) / 1000000L)));
+                backoff = Math.min(2 * backoff, MAX_BACKOFF);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted waiting for the repository lock.");
+        }
+    }
+
+    /** RepoLock Constructor.
+     * @param channel The open lock file, or null if nothing is locked.
+     * @param lock The lock held on it. */
+    private RepoLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /** Releases the lock. */
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Counts one attempt to take the lock.
+     * @param nanos How long it waited.
+     * @param busy True if the lock was not free at the first try. */
+    private static synchronized void record(long nanos, boolean busy) {
+        acquisitions += 1;
+        if (busy) {
+            contended += 1;
+        }
+        waitNanos += nanos;
+    }
+
+    /** Zeroes the counters, as each command starts. */
+    static synchronized void resetCounters() {
+        acquisitions = 0;
+        contended = 0;
+        waitNanos = 0;
+    }
+
+    /** Gets the number of times the lock was taken or given up on.
+     * @return acquisitions. */
+    static synchronized long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /** Gets the number of those times another process held the lock.
+     * @return contended. */
+    static synchronized long getContended() {
+        return contended;
+    }
+
+    /** Gets the total time spent waiting for the lock.
+     * @return Milliseconds. */
+    static synchronized double getWaitMillis() {
+        return waitNanos / 1e6;
+    }
+
+    /** The lock file. */
+    static final File LOCKFILE = Utils.join(Objects.GITLET, "lock");
+
+    /** The open lock file, or null if nothing is locked. */
+    private final FileChannel channel;
+
+    /** The lock held. */
+    private final FileLock lock;
+
+    /** Number of times the lock was taken or given up on. */
+    private static long acquisitions;
+
+    /** Number of times the lock was not free at once. */
+    private static long contended;
+
+    /** Total time spent waiting for the lock, in nanoseconds. */
+    private static long waitNanos;
+}
@@ -1,57 +1,290 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.LinkedHashMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /** Creates a Staging Area Class.
+ *
+ * The staging area is stored as MAGIC, a snapshot of the added files
+ * written as by Utils.writeMap and a varint count of the removed files
+ * followed by their names, and then a log of the changes made since
+ * the snapshot, each an operation byte, a file name and, for ADD, a
+ * blob ID. A change is saved by appending it to the log through the
+ * Journal, so staging or unstaging one file costs the same however many
+ * are staged. The file is rewritten as a bare snapshot when the area
+ * is cleared, as on commit, and once the log holds more changes than
+ * both MIN_LOG and the number of files staged, so that reading it
+ * takes time in proportion to what is staged. Staging areas Java-
+ * serialized by the baseline version are still read.
  * @author Daniel Bostwick */
 public class Staged implements Serializable {
 
+    /** Start of every encoded staging area: three magic bytes and the
+     * format version. */
+    static final byte[] MAGIC = {'G', 'S', 'A', 2};
+
+    /** Logged changes always tolerated before a rewrite. */
+    static final int MIN_LOG = 1024;
+
+    /** Log operation staging a file for addition. */
+    static final int ADD = 1;
+
+    /** Log operation unstaging an added file. */
+    static final int UNSTAGE = 2;
+
+    /** Log operation staging a file for removal. */
+    static final int REMOVE = 3;
+
+    /** Log operation unstaging a removed file. */
+    static final int UNREMOVE = 4;
+
     /** Creates LinkedHashMap to store all Files that are to be added.
      * LinkedHashMap{fileName, SHA1 of Contents}.
      */
     private LinkedHashMap<String, String> addedFiles;
 
-    /** Creates an ArrayList of Files to be removed.
-     *  ArrayList{fileName}.
+    /** Creates a set of Files to be removed.
+     *  LinkedHashSet{fileName}.
      */
-    private ArrayList<String> removedFiles;
+    private LinkedHashSet<String> removedFiles;
+
+    /** Length of the stored staging area this was read from and has
+     * saved changes to, or -1 if it must be rewritten. */
+    private transient int stored;
+
+    /** Number of changes in the stored log. */
+    private transient int logged;
+
+    /** Changes not yet saved, encoded as log entries. */
+    private transient ByteArrayOutputStream changes;
+
+    /** Number of changes not yet saved. */
+    private transient int unsaved;
+
+    /** The fields of the serialized form, which the baseline version
+     * wrote with the removed files in an ArrayList. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("addedFiles", LinkedHashMap.class),
+        new ObjectStreamField("removedFiles", ArrayList.class)
+    };
+
+    /** The ID the baseline version's serialized staging areas carry. */
+    private static final long serialVersionUID = -2851316605180392307L;
 
     /** Staging Area Constructor. */
     public Staged() {
         addedFiles = new LinkedHashMap<>();
-        removedFiles = new ArrayList<>();
+        removedFiles = new LinkedHashSet<>();
+        stored = -1;
+        changes = new ByteArrayOutputStream();
     }
 
     /** Adds fileName and SHA1 ID into LinkedHashMap.
      * @param fileName Name of file.
      * @param sha1 File SHA ID. */
     public void add(String fileName, String sha1) {
-        addedFiles.put(fileName, sha1);
+        if (!sha1.equals(addedFiles.put(fileName, sha1))) {
+            log(ADD, fileName, sha1);
+        }
+    }
+
+    /** Unstages a file staged for addition.
+     * @param fileName Name of file.
+     * @return True if it was staged. */
+    public boolean unstage(String fileName) {
+        if (addedFiles.remove(fileName) == null) {
+            return false;
+        }
+        log(UNSTAGE, fileName, null);
+        return true;
     }
 
     /** Clears all contents from Staging Area. */
     public void clear() {
         addedFiles = new LinkedHashMap<>();
-        removedFiles = new ArrayList<>();
+        removedFiles = new LinkedHashSet<>();
+        stored = -1;
+        changes.reset();
+        unsaved = 0;
     }
 
     /** Adds files to be removed.
      * @param fileName Name of file. */
     public void toBeRemoved(String fileName) {
-        removedFiles.add(fileName);
+        if (removedFiles.add(fileName)) {
+            log(REMOVE, fileName, null);
+        }
     }
 
-    /** Grabs a LinkedHashMap of added files.
+    /** Unstages a file staged for removal.
+     * @param fileName Name of file.
+     * @return True if it was staged. */
+    public boolean unremove(String fileName) {
+        if (!removedFiles.remove(fileName)) {
+            return false;
+        }
+        log(UNREMOVE, fileName, null);
+        return true;
+    }
+
+    /** Grabs the added files, which cannot be changed through it.
      * @return */
-    public LinkedHashMap<String, String> getAdded() {
-        return addedFiles;
+    public Map<String, String> getAdded() {
+        return Collections.unmodifiableMap(addedFiles);
     }
 
-    /** Grabs an ArrayList of removed files.
+    /** Grabs the removed files, which cannot be changed through it.
      * @return */
-    public ArrayList<String> getRemoved() {
-        return removedFiles;
+    public Set<String> getRemoved() {
+        return Collections.unmodifiableSet(removedFiles);
+    }
+
+    /** Writes the Staging Area to FILE when the command commits; see
+     * Journal. Changes are appended to the log as described above,
+     * unless the file must be rewritten.
+     * @param file The file to be written, which this was read from. */
+    public void write(File file) {
+        if (stored < 0 || logged + unsaved
+                > Math.max(MIN_LOG, addedFiles.size() + removedFiles.size())) {
+            byte[] snapshot = encode();
+            Journal.write(file, snapshot);
+            stored = snapshot.length;
+            logged = 0;
+        } else if (unsaved > 0) {
+            Journal.append(file, stored, changes.toByteArray());
+            stored += changes.size();
+            logged += unsaved;
+        }
+        changes.reset();
+        unsaved = 0;
+    }
+
+    /** Reads a Staging Area written by write, or serialized by an older
+     * version.
+     * @param file The file to be read.
+     * @return The staging area. */
+    public static Staged read(File file) {
+        return decode(Utils.readContents(file));
+    }
+
+    /** Encodes the Staging Area as a bare snapshot.
+     * @return The encoding. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            Utils.writeMap(out, addedFiles);
+            Utils.writeVarint(out, removedFiles.size());
+            for (String fileName : removedFiles) {
+                Utils.writeString(out, fileName);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing staging area.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Reads a Staging Area from its encoding or serialized form,
+     * replaying its log.
+     * @param bytes The stored form.
+     * @return The staging area. */
+    static Staged decode(byte[] bytes) {
+        if (Utils.isSerialized(bytes)) {
+            return Utils.deserialize(bytes, Staged.class);
+        }
+        long start = Stats.start();
+        try (DataInputStream in = Utils.decoder(bytes, MAGIC)) {
+            Staged staged = new Staged();
+            Utils.readMap(in, staged.addedFiles);
+            for (int i = Utils.readVarint(in); i > 0; i -= 1) {
+                staged.removedFiles.add(Utils.readString(in));
+            }
+            while (in.available() > 0) {
+                staged.replay(in);
+            }
+            staged.stored = bytes.length;
+            Stats.record(Stats.DESERIALIZE, bytes.length, start);
+            return staged;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Applies one logged change.
+     * @param in The log, at the start of the change. */
+    private void replay(DataInputStream in) throws IOException {
+        int op = in.readByte();
+        String fileName = Utils.readString(in);
+        switch (op) {
+        case ADD:
+            addedFiles.put(fileName, Utils.readId(in));
+            break;
+        case UNSTAGE:
+            addedFiles.remove(fileName);
+            break;
+        case REMOVE:
+            removedFiles.add(fileName);
+            break;
+        case UNREMOVE:
+            removedFiles.remove(fileName);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown staging change");
+        }
+        logged += 1;
+    }
+
+    /** Records a change to be saved by write.
+     * @param op The operation.
+     * @param fileName Name of file.
+     * @param sha1 File SHA ID, for ADD. */
+    private void log(int op, String fileName, String sha1) {
+        try (DataOutputStream out = new DataOutputStream(changes)) {
+            out.writeByte(op);
+            Utils.writeString(out, fileName);
+            if (sha1 != null) {
+                Utils.writeId(out, sha1);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing staging area.");
+        }
+        unsaved += 1;
+    }
+
+    /** Serializes the Staging Area in the form the baseline reads.
+     * @param out The stream written. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("addedFiles", addedFiles);
+        fields.put("removedFiles", new ArrayList<>(removedFiles));
+        out.writeFields();
+    }
+
+    /** Reads a Staging Area serialized by the baseline version.
+     * @param in The stream read. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        addedFiles = (LinkedHashMap<String, String>)
+                fields.get("addedFiles", null);
+        removedFiles = new LinkedHashSet<>(
+                (Collection<String>) fields.get("removedFiles", null));
+        stored = -1;
+        changes = new ByteArrayOutputStream();
     }
 }
@@ -0,0 +1,285 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Per-command timing and I/O counters, so that a slow command can be
+ * traced to the kind of work it spent its time on.
+ *
+ * Each kind of work is counted as a number of operations, the bytes
+ * they consumed and the time they took:
+ *   read:         whole files read by Utils.readContents, and objects
+ *                 read out of packs;
+ *   written:      files written by Utils.writeContents and
+ *                 Utils.writeAtomic, and working files checked out from
+ *                 blobs;
+ *   deserialized: commits, trees and staging areas decoded, and objects
+ *                 read by Utils.readObject or Utils.deserialize;
+ *   hashed:       working files hashed, or hashed and stored as blobs;
+ *   sha1:         calls of Utils.sha1 on values in memory.
+ * Reading a file and then decoding it counts once under each. Work done
+ * on several threads at once is summed, so its time can exceed the
+ * command's wall time. The counters of the commit cache, the index, the
+ * repository lock and Checkout are reported alongside.
+ *
+ * All of these counters are reset as each command starts, and count nothing
+ * unless they are to be reported, so that they cost nothing otherwise.
+ * They are printed to standard error after the command when it is
+ * preceded by --stats (or Gitlet is run with -Dgitlet.stats=true), or
+ * printed as one line of JSON when it is preceded by --stats=json. If
+ * the config sets FILE_KEY, the JSON line is also appended to the file
+ * it names, taken relative to the working directory, for collection by
+ * other tools.
+ * @author Daniel Bostwick */
+public class Stats {
+
+    /** Flag asking for the counters as text. */
+    static final String TEXT_FLAG = "--stats";
+
+    /** Flag asking for the counters as JSON. */
+    static final String JSON_FLAG = "--stats=json";
+
+    /** Config key naming a file to append JSON lines to. */
+    static final String FILE_KEY = "stats.file";
+
+    /** Kind of work: reading files. */
+    static final int READ = 0;
+
+    /** Kind of work: writing files. */
+    static final int WRITE = 1;
+
+    /** Kind of work: decoding stored objects. */
+    static final int DESERIALIZE = 2;
+
+    /** Kind of work: hashing working files. */
+    static final int HASH = 3;
+
+    /** Kind of work: hashing values in memory. */
+    static final int SHA1 = 4;
+
+    /** Names of the kinds of work, by kind. */
+    static final String[] KINDS = {"read", "written", "deserialized",
+        "hashed", "sha1"};
+
+    /** Nouns for the operations of each kind, by kind. */
+    private static final String[] UNITS = {"files", "files", "objects",
+        "files", "hashes"};
+
+    /** Starts counting a command, first removing the flags above from
+     * the front of its arguments.
+     * @param args The arguments given to Gitlet.
+     * @return The command and its operands. */
+    static synchronized String[] begin(String[] args) {
+        text = Boolean.getBoolean("gitlet.stats");
+        json = false;
+        int flags = 0;
+        while (flags < args.length && (args[flags].equals(TEXT_FLAG)
+                || args[flags].equals(JSON_FLAG))) {
+            text |= args[flags].equals(TEXT_FLAG);
+            json |= args[flags].equals(JSON_FLAG);
+            flags += 1;
+        }
+        for (int i = 0; i < KINDS.length * 3; i += 1) {
+            COUNTERS.set(i, 0);
+        }
+        CommitStore.CACHE.resetCounters();
+        Index.resetCounters();
+        RepoLock.resetCounters();
+        Checkout.resetCounters();
+        enabled = text || json || !exportFile().isEmpty();
+        command = flags < args.length ? args[flags] : "";
+        startMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        wallNanos = 0;
+        return Arrays.copyOfRange(args, flags, args.length);
+    }
+
+    /** Stops counting the command begun last.
+     * @return True if its counters are to be printed as text. */
+    static synchronized boolean end() {
+        wallNanos = System.nanoTime() - startNanos;
+        return text;
+    }
+
+    /** Gets the time at which an operation starts, for record.
+     * @return The time, in nanoseconds. */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Counts one operation.
+     * @param kind The kind of work.
+     * @param bytes The bytes it consumed.
+     * @param start The time it started, from start(). */
+    static void record(int kind, long bytes, long start) {
+        if (!enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        COUNTERS.addAndGet(3 * kind, 1);
+        COUNTERS.addAndGet(3 * kind + 1, bytes);
+        COUNTERS.addAndGet(3 * kind + 2, nanos);
+    }
+
+    /** Gets the number of operations of a kind in this command.
+     * @param kind The kind of work.
+     * @return The count. */
+    static long getCount(int kind) {
+        return COUNTERS.get(3 * kind);
+    }
+
+    /** Gets the bytes consumed by operations of a kind.
+     * @param kind The kind of work.
+     * @return The bytes. */
+    static long getBytes(int kind) {
+        return COUNTERS.get(3 * kind + 1);
+    }
+
+    /** Gets the time taken by operations of a kind.
+     * @param kind The kind of work.
+     * @return Milliseconds. */
+    static double getMillis(int kind) {
+        return COUNTERS.get(3 * kind + 2) / 1e6;
+    }
+
+    /** Gets the wall time of the command, once ended.
+     * @return Milliseconds. */
+    static synchronized double getWallMillis() {
+        return wallNanos / 1e6;
+    }
+
+    /** Prints the counters of the command as text.
+     * @param out Where they are printed. */
+    static synchronized void print(PrintStream out) {
+        out.printf("command: %s in %.1f ms%n",
+                command.isEmpty() ? "(none)" : command, getWallMillis());
+        for (int kind = 0; kind < KINDS.length; kind += 1) {
+            out.printf("%s: %d %s, %d bytes, %.1f ms%n", KINDS[kind],
+                    getCount(kind), UNITS[kind], getBytes(kind),
+                    getMillis(kind));
+        }
+    }
+
+    /** Prints or appends the JSON line for the command, as asked. A
+     * file that cannot be appended to is reported on one line of
+     * standard error, and does not fail the command.
+     * @param out Where it is printed if --stats=json was given. */
+    static synchronized void export(PrintStream out) {
+        String file = exportFile();
+        if (!json && file.isEmpty()) {
+            return;
+        }
+        String line = toJson();
+        if (json) {
+            out.println(line);
+        }
+        if (!file.isEmpty()) {
+            File target = new File(file);
+            if (!target.isAbsolute()) {
+                target = new File(Objects.CWD, file);
+            }
+            try {
+                Files.write(target.toPath(),
+                        (line + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            } catch (IOException | InvalidPathException excp) {
+                System.err.println("Could not append stats to " + file
+                        + ": " + excp.getClass().getSimpleName());
+            }
+        }
+    }
+
+    /** Gets the file JSON lines are appended to.
+     * @return The file named by FILE_KEY, or "" if none is. */
+    private static String exportFile() {
+        return Objects.GITLET.isDirectory() ? Config.get(FILE_KEY, "") : "";
+    }
+
+    /** Encodes the counters of the command as a JSON object, on one
+     * line.
+     * @return The JSON. */
+    static synchronized String toJson() {
+        StringBuilder result = new StringBuilder("{\"command\":");
+        quote(result, command);
+        result.append(",\"start\":").append(startMillis);
+        result.append(String.format(Locale.ROOT, ",\"wall_ms\":%.3f",
+                getWallMillis()));
+        for (int kind = 0; kind < KINDS.length; kind += 1) {
+            result.append(",\"").append(KINDS[kind]).append("\":{");
+            result.append("\"count\":").append(getCount(kind));
+            result.append(",\"bytes\":").append(getBytes(kind));
+            result.append(String.format(Locale.ROOT, ",\"ms\":%.3f}",
+                    getMillis(kind)));
+        }
+        CommitCache cache = CommitStore.CACHE;
+        result.append(",\"commit_cache\":{\"hits\":").append(cache.getHits());
+        result.append(",\"misses\":").append(cache.getMisses());
+        result.append(",\"evictions\":").append(cache.getEvictions());
+        result.append(",\"capacity\":").append(cache.getCapacity());
+        result.append("},\"index\":{\"rehashed\":")
+                .append(Index.getRehashed());
+        result.append(",\"bytes\":").append(Index.getBytesHashed());
+        result.append(",\"served\":").append(Index.getServed());
+        result.append("},\"lock\":{\"taken\":")
+                .append(RepoLock.getAcquisitions());
+        result.append(",\"contended\":").append(RepoLock.getContended());
+        result.append(String.format(Locale.ROOT, ",\"wait_ms\":%.3f}",
+                RepoLock.getWaitMillis()));
+        result.append(",\"checkout\":{\"written\":")
+                .append(Checkout.getFilesWritten());
+        result.append(",\"deleted\":").append(Checkout.getFilesDeleted());
+        return result.append("}}").toString();
+    }
+
+    /** Appends a string to JSON as a JSON string.
+     * @param result The JSON being built.
+     * @param value The string. */
+    private static void quote(StringBuilder result, String value) {
+        result.append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        result.append('"');
+    }
+
+    /** Count, bytes and nanoseconds of each kind of work, in that order
+     * for each kind. */
+    private static final AtomicLongArray COUNTERS =
+            new AtomicLongArray(KINDS.length * 3);
+
+    /** The command being counted, or "" if none was given. */
+    private static String command = "";
+
+    /** True if the counters are to be printed as text. */
+    private static boolean text;
+
+    /** True if the counters count, as they do if they are reported. */
+    private static volatile boolean enabled;
+
+    /** True if the counters are to be printed as JSON. */
+    private static boolean json;
+
+    /** When the command started, in milliseconds since the epoch. */
+    private static long startMillis;
+
+    /** When the command started, from System.nanoTime. */
+    private static long startNanos;
+
+    /** Wall time of the command, once ended, in nanoseconds. */
+    private static long wallNanos;
+}
@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Computes the five sections printed by the status command. The head
+ * commit and staging area are loaded once. Only files tracked by the
+ * head commit or staged are hashed, in parallel on a work-stealing pool;
+ * untracked files are reported by name alone. Directories whose tree
+ * ID, computed from index entries that prove their files unchanged,
+ * matches the head commit's are skipped without hashing their files.
+ * @author Daniel Bostwick */
+public class Status {
+
+    /** Config key giving the number of hashing threads. */
+    static final String THREADS_KEY = "status.threads";
+
+    /** Status Constructor.
+     * @param head The current head commit.
+     * @param stagingArea The staging area. */
+    public Status(Commit head, Staged stagingArea) {
+        this.headCommit = head;
+        this.head = head.getBlobs();
+        this.stagingArea = stagingArea;
+    }
+
+    /** Scans the working directory and prints the status report.
+     * @param currentBranch The name of the checked-out branch. */
+    public void print(String currentBranch) {
+        List<String> workingFiles = Utils.plainFilenamesUnder(Objects.CWD);
+        Map<String, String> added = stagingArea.getAdded();
+        Set<String> removed = stagingArea.getRemoved();
+        ArrayList<String> tracked = new ArrayList<>();
+        TreeSet<String> untracked = new TreeSet<>();
+        for (String name : workingFiles) {
+            boolean known = head.containsKey(name) || added.containsKey(name);
+            if (!known || removed.contains(name)) {
+                untracked.add(name);
+            } else {
+                tracked.add(name);
+            }
+        }
+        Index index = Index.get();
+        HashSet<String> clean = cleanDirectories(index.cachedAll(tracked));
+        ArrayList<String> dirty = new ArrayList<>();
+        for (String name : tracked) {
+            if (!clean.contains(parent(name))) {
+                dirty.add(name);
+            }
+        }
+        Map<String, String> hashes = index.shaAll(dirty,
+                Config.getInt(THREADS_KEY,
+                        Runtime.getRuntime().availableProcessors()));
+        TreeSet<String> modified = new TreeSet<>();
+        for (String name : dirty) {
+            String sha = hashes.get(name);
+            String expected = added.containsKey(name)
+                    ? added.get(name) : head.get(name);
+            if (!expected.equals(sha)) {
+                modified.add(name + " (modified)");
+            }
+        }
+        HashSet<String> present = new HashSet<>(workingFiles);
+        for (String name : added.keySet()) {
+            if (!present.contains(name)) {
+                modified.add(name + " (deleted)");
+            }
+        }
+        for (String name : head.keySet()) {
+            if (!present.contains(name) && !removed.contains(name)
+                    && !added.containsKey(name)) {
+                modified.add(name + " (deleted)");
+            }
+        }
+
+        System.out.println("=== Branches ===");
+        for (String branch : Utils.plainFilenamesIn(Objects.BRANCHES)) {
+            if (branch.equals(currentBranch)) {
+                System.out.print("*");
+            }
+            System.out.println(branch);
+        }
+        System.out.println();
+        section("Staged Files", stagingArea.getAdded().keySet());
+        section("Removed Files", stagingArea.getRemoved());
+        section("Modifications Not Staged For Commit", modified);
+        section("Untracked Files", untracked);
+    }
+
+    /** Finds the directories whose tracked working files have the same
+     * tree ID as in the head commit and hold no staged changes; none of
+     * their tracked files can be modified or deleted.
+     * @param hashes Blob SHA-1 IDs of the tracked working files known
+     *               without hashing, by path.
+     * @return The paths of the clean directories. */
+    private HashSet<String> cleanDirectories(Map<String, String> hashes) {
+        HashMap<String, String> working = new HashMap<>();
+        Tree.build(hashes, working, false);
+        Map<String, String> committed =
+                Tree.directories(headCommit.getTree());
+        HashSet<String> touched = new HashSet<>();
+        ArrayList<String> stagedPaths =
+                new ArrayList<>(stagingArea.getAdded().keySet());
+        stagedPaths.addAll(stagingArea.getRemoved());
+        for (String path : stagedPaths) {
+            String dir = path;
+            do {
+                dir = parent(dir);
+            } while (touched.add(dir) && !dir.isEmpty());
+        }
+        HashSet<String> clean = new HashSet<>();
+        for (Map.Entry<String, String> dir : working.entrySet()) {
+            if (!touched.contains(dir.getKey())
+                    && dir.getValue().equals(committed.get(dir.getKey()))) {
+                clean.add(dir.getKey());
+            }
+        }
+        return clean;
+    }
+
+    /** Gets the directory part of a path.
+     * @param path A path separated by Tree.SEPARATOR.
+     * @return The path of its directory, "" for the root. */
+    private static String parent(String path) {
+        int slash = path.lastIndexOf(Tree.SEPARATOR);
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+
+    /** Prints one sorted section of the report.
+     * @param title The section's title.
+     * @param names The entries of the section. */
+    private static void section(String title, Collection<String> names) {
+        System.out.println("=== " + title + " ===");
+        ArrayList<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        for (String name : sorted) {
+            System.out.println(name);
+        }
+        System.out.println();
+    }
+
+    /** The current head commit. */
+    private final Commit headCommit;
+
+    /** File paths tracked by the head commit, mapped to blob IDs. */
+    private final Map<String, String> head;
+
+    /** The staging area. */
+    private final Staged stagingArea;
+}
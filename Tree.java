@@ -0,0 +1,427 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A directory snapshot: the blob ID of each file and the tree ID of each
+ * subdirectory it holds. Trees are content-addressed and immutable, so a
+ * directory that did not change between two commits is one shared
+ * object, and two directories with equal IDs hold identical files.
+ *
+ * A tree is stored as MAGIC followed by its file entries and then its
+ * directory entries, each written as by Utils.writeMap.
+ * @author Daniel Bostwick */
+public class Tree {
+
+    /** Separator of the components of a tracked path. */
+    static final String SEPARATOR = "/";
+
+    /** Start of every encoded tree: three magic bytes and the format
+     * version. */
+    static final byte[] MAGIC = {'G', 'T', 'R', 1};
+
+    /** Tree Constructor for an empty directory. */
+    public Tree() {
+        this.blobs = new TreeMap<>();
+        this.trees = new TreeMap<>();
+    }
+
+    /** Gets the files in this directory.
+     * @return File names mapped to blob SHA-1 IDs, in sorted order. */
+    public TreeMap<String, String> getBlobs() {
+        return blobs;
+    }
+
+    /** Gets the subdirectories of this directory.
+     * @return Directory names mapped to tree SHA-1 IDs, in sorted order. */
+    public TreeMap<String, String> getTrees() {
+        return trees;
+    }
+
+    /** Gets the SHA-1 ID of this tree, computed from its entries alone.
+     * @return The ID. */
+    public String getSHA() {
+        ArrayList<Object> vals = new ArrayList<>();
+        vals.add("tree\n");
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            vals.add("blob " + blob.getKey() + " " + blob.getValue() + "\n");
+        }
+        for (Map.Entry<String, String> tree : trees.entrySet()) {
+            vals.add("tree " + tree.getKey() + " " + tree.getValue() + "\n");
+        }
+        return Utils.sha1(vals);
+    }
+
+    /** Encodes this tree as described above.
+     * @return The encoding. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            Utils.writeMap(out, blobs);
+            Utils.writeMap(out, trees);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Reads a tree from its encoding.
+     * @param bytes The encoding.
+     * @return The tree. */
+    static Tree decode(byte[] bytes) {
+        long start = Stats.start();
+        try (DataInputStream in = Utils.decoder(bytes, MAGIC)) {
+            Tree tree = new Tree();
+            Utils.readMap(in, tree.blobs);
+            Utils.readMap(in, tree.trees);
+            Stats.record(Stats.DESERIALIZE, bytes.length, start);
+            return tree;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* STORE */
+
+    /** Gets the file that holds the tree with the given ID.
+     * @param sha The SHA-1 ID of the tree.
+     * @return The object file. */
+    static File objectFile(String sha) {
+        return Utils.join(TREES, sha.substring(0, CommitStore.FANOUT),
+                sha.substring(CommitStore.FANOUT));
+    }
+
+    /** Reads a tree, loose or packed.
+     * @param sha The SHA-1 ID of the tree.
+     * @return The tree. */
+    static Tree read(String sha) {
+        synchronized (CACHE) {
+            Tree tree = CACHE.get(sha);
+            if (tree != null) {
+                return tree;
+            }
+        }
+        byte[] bytes = readBytes(sha);
+        if (bytes == null) {
+            throw Utils.error("Missing tree %s", sha);
+        }
+        Tree tree = decode(bytes);
+        synchronized (CACHE) {
+            CACHE.put(sha, tree);
+        }
+        return tree;
+    }
+
+    /** Reads the stored form of a tree, loose or packed.
+     * @param sha The SHA-1 ID of the tree.
+     * @return The stored tree, or null if there is no such tree. */
+    static byte[] readBytes(String sha) {
+        File file = objectFile(sha);
+        if (file.isFile()) {
+            return Utils.readContents(file);
+        }
+        return Pack.readBytes(sha);
+    }
+
+    /** Builds the trees of a set of files and stores any that are not
+     * already stored.
+     * @param files Paths, relative to the working directory and separated
+     *              by SEPARATOR, mapped to blob SHA-1 IDs.
+     * @return The SHA-1 ID of the root tree. */
+    static String write(Map<String, String> files) {
+        return build(files, null, true);
+    }
+
+    /** Applies changes to a stored tree. Only the directories holding a
+     * changed file, and their ancestors, are read and rewritten; every
+     * other subtree is shared with ROOT. Each of those directories is
+     * rewritten whole, so the work done is proportional to the number of
+     * entries in the directories changed, not to the number of files
+     * changed: one change in a flat directory of N files writes an
+     * N-entry tree.
+     * @param root The SHA-1 ID of the tree to change.
+     * @param changes Paths mapped to their new blob SHA-1 IDs, or to null
+     *                for paths to remove.
+     * @return The SHA-1 ID of the changed root tree. */
+    static String update(String root, Map<String, String> changes) {
+        HashMap<String, Map<String, String>> files = new HashMap<>();
+        HashMap<String, HashSet<String>> subdirs = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.lastIndexOf(SEPARATOR);
+            String dir = slash < 0 ? "" : path.substring(0, slash);
+            files.computeIfAbsent(dir, k -> new HashMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            while (!dir.isEmpty()) {
+                slash = dir.lastIndexOf(SEPARATOR);
+                String parent = slash < 0 ? "" : dir.substring(0, slash);
+                if (!subdirs.computeIfAbsent(parent, k -> new HashSet<>())
+                        .add(dir.substring(slash + 1))) {
+                    break;
+                }
+                dir = parent;
+            }
+        }
+        String sha = update(root, "", files, subdirs);
+        return sha == null ? write(new HashMap<>()) : sha;
+    }
+
+    /** Applies the changes under directory DIR to tree SHA.
+     * @param sha The SHA-1 ID of the directory's tree, or null if the
+     *            directory is new.
+     * @param dir The directory's path.
+     * @param files New blob IDs (null to remove) by file name, by
+     *              directory path.
+     * @param subdirs Names of the changed subdirectories, by directory
+     *                path.
+     * @return The SHA-1 ID of the changed tree, or null if it is empty. */
+    private static String update(String sha, String dir,
+                                 Map<String, Map<String, String>> files,
+                                 Map<String, HashSet<String>> subdirs) {
+        Tree tree = new Tree();
+        if (sha != null) {
+            Tree old = read(sha);
+            tree.blobs.putAll(old.blobs);
+            tree.trees.putAll(old.trees);
+        }
+        for (Map.Entry<String, String> file
+                : files.getOrDefault(dir, Map.of()).entrySet()) {
+            if (file.getValue() == null) {
+                tree.blobs.remove(file.getKey());
+            } else {
+                tree.blobs.put(file.getKey(), file.getValue());
+            }
+        }
+        for (String name : subdirs.getOrDefault(dir, new HashSet<>())) {
+            String sub = update(tree.trees.get(name), child(dir, name),
+                    files, subdirs);
+            if (sub == null) {
+                tree.trees.remove(name);
+            } else {
+                tree.trees.put(name, sub);
+            }
+        }
+        if (tree.blobs.isEmpty() && tree.trees.isEmpty()) {
+            return null;
+        }
+        String id = tree.getSHA();
+        if (!objectFile(id).exists()) {
+            objectFile(id).getParentFile().mkdirs();
+            Utils.writeAtomic(objectFile(id), tree.encode());
+            Journal.created(objectFile(id));
+        }
+        return id;
+    }
+
+    /** Builds the trees of a set of files.
+     * @param files Paths mapped to blob SHA-1 IDs.
+     * @param ids If not null, receives the tree ID of every directory,
+     *            keyed by its path ("" for the root).
+     * @param store True if new trees are to be written to the store.
+     * @return The SHA-1 ID of the root tree. */
+    static String build(Map<String, String> files, Map<String, String> ids,
+                        boolean store) {
+        HashMap<String, Tree> dirs = new HashMap<>();
+        dirs.put("", new Tree());
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String path = file.getKey();
+            int slash = path.lastIndexOf(SEPARATOR);
+            String dir = slash < 0 ? "" : path.substring(0, slash);
+            directory(dirs, dir).blobs.put(path.substring(slash + 1),
+                    file.getValue());
+        }
+        ArrayList<String> order = new ArrayList<>(dirs.keySet());
+        order.sort((a, b) -> depth(b) - depth(a));
+        String root = null;
+        for (String dir : order) {
+            Tree tree = dirs.get(dir);
+            String sha = tree.getSHA();
+            if (ids != null) {
+                ids.put(dir, sha);
+            }
+            if (store && !objectFile(sha).exists()) {
+                objectFile(sha).getParentFile().mkdirs();
+                Utils.writeAtomic(objectFile(sha), tree.encode());
+                Journal.created(objectFile(sha));
+            }
+            if (dir.isEmpty()) {
+                root = sha;
+            } else {
+                int slash = dir.lastIndexOf(SEPARATOR);
+                String parent = slash < 0 ? "" : dir.substring(0, slash);
+                dirs.get(parent).trees.put(dir.substring(slash + 1), sha);
+            }
+        }
+        return root;
+    }
+
+    /** Gets the tree of directory DIR being built, creating it and its
+     * ancestors as needed.
+     * @param dirs Trees being built, by directory path.
+     * @param dir A directory path.
+     * @return The tree. */
+    private static Tree directory(HashMap<String, Tree> dirs, String dir) {
+        Tree tree = dirs.get(dir);
+        if (tree == null) {
+            tree = new Tree();
+            dirs.put(dir, tree);
+            int slash = dir.lastIndexOf(SEPARATOR);
+            directory(dirs, slash < 0 ? "" : dir.substring(0, slash));
+        }
+        return tree;
+    }
+
+    /** Gets the number of components of a directory path.
+     * @param dir A directory path.
+     * @return Its depth; the root has depth 0. */
+    private static int depth(String dir) {
+        if (dir.isEmpty()) {
+            return 0;
+        }
+        return dir.split(SEPARATOR).length;
+    }
+
+    /** Lists every file under a tree.
+     * @param root The SHA-1 ID of the root tree.
+     * @return Paths mapped to blob SHA-1 IDs, in sorted order. */
+    static LinkedHashMap<String, String> flatten(String root) {
+        LinkedHashMap<String, String> files = new LinkedHashMap<>();
+        flatten(root, "", files);
+        return files;
+    }
+
+    /** Adds the files under tree SHA, whose path is PREFIX, to FILES.
+     * @param sha The SHA-1 ID of a tree.
+     * @param prefix Path of the tree followed by SEPARATOR, or "".
+     * @param files Receives paths mapped to blob SHA-1 IDs. */
+    private static void flatten(String sha, String prefix,
+                                Map<String, String> files) {
+        Tree tree = read(sha);
+        for (Map.Entry<String, String> blob : tree.blobs.entrySet()) {
+            files.put(prefix + blob.getKey(), blob.getValue());
+        }
+        for (Map.Entry<String, String> sub : tree.trees.entrySet()) {
+            flatten(sub.getValue(), prefix + sub.getKey() + SEPARATOR, files);
+        }
+    }
+
+    /** Looks up some paths under a tree, reading only the directories
+     * on the way to them.
+     * @param root The SHA-1 ID of the root tree.
+     * @param paths The paths to look up.
+     * @return Those of PATHS that are files under ROOT, mapped to their
+     *         blob SHA-1 IDs. */
+    static HashMap<String, String> lookup(String root,
+                                          Collection<String> paths) {
+        HashMap<String, String> files = new HashMap<>();
+        HashMap<String, Tree> dirs = new HashMap<>();
+        for (String path : paths) {
+            int slash = path.lastIndexOf(SEPARATOR);
+            Tree tree = subtree(root,
+                    slash < 0 ? "" : path.substring(0, slash), dirs);
+            String blob = tree == null
+                    ? null : tree.blobs.get(path.substring(slash + 1));
+            if (blob != null) {
+                files.put(path, blob);
+            }
+        }
+        return files;
+    }
+
+    /** Finds the tree of directory DIR under tree ROOT.
+     * @param root The SHA-1 ID of the root tree.
+     * @param dir The directory's path.
+     * @param dirs Trees already found, or null for directories that do
+     *             not exist, by path; receives the ones found now.
+     * @return The tree, or null if there is no such directory. */
+    private static Tree subtree(String root, String dir,
+                                Map<String, Tree> dirs) {
+        if (dirs.containsKey(dir)) {
+            return dirs.get(dir);
+        }
+        Tree tree;
+        if (dir.isEmpty()) {
+            tree = read(root);
+        } else {
+            int slash = dir.lastIndexOf(SEPARATOR);
+            Tree parent = subtree(root,
+                    slash < 0 ? "" : dir.substring(0, slash), dirs);
+            String sha = parent == null
+                    ? null : parent.trees.get(dir.substring(slash + 1));
+            tree = sha == null ? null : read(sha);
+        }
+        dirs.put(dir, tree);
+        return tree;
+    }
+
+    /** Lists the tree ID of every directory under a tree.
+     * @param root The SHA-1 ID of the root tree.
+     * @return Tree IDs by directory path ("" for the root). */
+    static Map<String, String> directories(String root) {
+        HashMap<String, String> ids = new HashMap<>();
+        directories(root, "", ids);
+        return ids;
+    }
+
+    /** Adds the directories under tree SHA, whose path is DIR, to IDS.
+     * @param sha The SHA-1 ID of a tree.
+     * @param dir The tree's path.
+     * @param ids Receives tree IDs by directory path. */
+    private static void directories(String sha, String dir,
+                                    Map<String, String> ids) {
+        ids.put(dir, sha);
+        for (Map.Entry<String, String> sub : read(sha).trees.entrySet()) {
+            directories(sub.getValue(), child(dir, sub.getKey()), ids);
+        }
+    }
+
+    /** Lists the ID of every tree under a tree, including itself.
+     * @param root The SHA-1 ID of the root tree.
+     * @return The tree IDs. */
+    static List<String> reachable(String root) {
+        return new ArrayList<>(directories(root).values());
+    }
+
+    /** Joins a directory path and an entry name.
+     * @param dir A directory path, "" for the root.
+     * @param name The name of an entry in it.
+     * @return The entry's path. */
+    static String child(String dir, String name) {
+        return dir.isEmpty() ? name : dir + SEPARATOR + name;
+    }
+
+    /** The directory holding loose trees. */
+    static final File TREES = Utils.join(Objects.GITLET, "trees");
+
+    /** Most trees kept in CACHE. */
+    static final int CACHE_SIZE = 4096;
+
+    /** Trees most recently read by this process, at most CACHE_SIZE of
+     * them, so that a long-running daemon does not keep every tree. */
+    private static final LinkedHashMap<String, Tree> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Tree> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /** File names mapped to blob SHA-1 IDs. */
+    private TreeMap<String, String> blobs;
+
+    /** Directory names mapped to tree SHA-1 IDs. */
+    private TreeMap<String, String> trees;
+}
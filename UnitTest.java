@@ -0,0 +1,720 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Unit tests of Gitlet's storage.
+ *  Usage: java -ea gitlet.UnitTest. Each of the REPOSITORY_TESTS builds
+ *  a repository in a scratch directory, in a new JVM, since the working
+ *  directory of a repository is fixed for the life of a JVM.
+ *  @author Daniel Bostwick
+ */
+class UnitTest {
+
+    /** Names of the tests run in a repository of their own. */
+    static final String[] REPOSITORY_TESTS = {"repack", "messages",
+        "journal", "staging", "baseline", "history"};
+
+    /** Runs the tests, exiting with status 1 if any fails, or, given the
+     *  name of one of the REPOSITORY_TESTS, runs that test in the working
+     *  directory. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 1) {
+            here(args[0]);
+            return;
+        }
+        deltaRoundTrip();
+        deltaOfUnrelatedContents();
+        for (String test : REPOSITORY_TESTS) {
+            File dir = Benchmark.tempDir();
+            try {
+                Benchmark.java(dir, ProcessBuilder.Redirect.INHERIT,
+                        "gitlet.UnitTest", test);
+            } catch (IOException excp) {
+                System.err.println("FAILED: " + test);
+                System.exit(1);
+            } finally {
+                Benchmark.deleteAll(dir);
+            }
+        }
+        System.out.println("All unit tests passed.");
+    }
+
+    /** Runs the repository test named TEST in the working directory,
+     *  with the output of the commands it runs discarded. */
+    static void here(String test) throws IOException {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        switch (test) {
+        case "repack":
+            repackHere();
+            break;
+        case "messages":
+            messagesHere();
+            break;
+        case "journal":
+            journalHere();
+            break;
+        case "staging":
+            stagingHere();
+            break;
+        case "baseline":
+            baselineHere();
+            break;
+        case "history":
+            historyHere();
+            break;
+        default:
+            check(false, "no test named " + test);
+        }
+        System.setOut(stdout);
+    }
+
+    /** Checks that applyDelta rebuilds each target from the delta that
+     *  delta computes against its base. */
+    static void deltaRoundTrip() {
+        byte[] base = Benchmark.textContents(10000);
+        byte[] edited = Arrays.copyOf(base, base.length + 5);
+        System.arraycopy(base, 5000, edited, 5005, base.length - 5000);
+        System.arraycopy("12345".getBytes(StandardCharsets.UTF_8), 0,
+                edited, 5000, 5);
+        byte[][] targets = {base, edited, new byte[0],
+            Arrays.copyOf(base, 7), Arrays.copyOfRange(base, 3, 9000),
+            Benchmark.textContents(20000)};
+        for (byte[] target : targets) {
+            byte[] delta = Pack.delta(base, target);
+            check(Arrays.equals(target, Pack.applyDelta(base, delta)),
+                    "delta of " + target.length + " bytes round trip");
+        }
+        byte[] delta = Pack.delta(base, edited);
+        check(delta.length < edited.length / 10,
+                "small edit gives a small delta");
+        check(Arrays.equals(base, Pack.applyDelta(new byte[0],
+                Pack.delta(new byte[0], base))), "delta from empty base");
+    }
+
+    /** Checks the round trip of contents sharing nothing with the base. */
+    static void deltaOfUnrelatedContents() {
+        byte[] base = Benchmark.randomContents(4096);
+        byte[] target = Benchmark.randomContents(5000);
+        check(Arrays.equals(target, Pack.applyDelta(base,
+                Pack.delta(base, target))), "delta of unrelated contents");
+    }
+
+    /** Builds a repository in the working directory holding several
+     *  versions of some files, so that gc stores deltas, and one file
+     *  larger than Pack.DELTA_LIMIT, and checks that every commit, tree
+     *  and blob reads back unchanged after a first and a second gc. */
+    static void repackHere() throws IOException {
+        gitlet("init");
+        byte[] text = Benchmark.textContents(50000);
+        Random random = new Random(0);
+        for (int version = 0; version < 4; version += 1) {
+            for (int i = 0; i < 3; i += 1) {
+                text[random.nextInt(text.length)] = (byte) ('a' + version);
+                File file = Utils.join(Objects.CWD, "d" + i, "f.txt");
+                file.getParentFile().mkdirs();
+                Utils.writeContents(file, text);
+            }
+            if (version == 2) {
+                byte[] large = new byte[(int) Pack.DELTA_LIMIT + 1];
+                Arrays.fill(large, (byte) 'x');
+                Utils.writeContents(Utils.join(Objects.CWD, "large.bin"),
+                        large);
+            }
+            gitlet("add", ".");
+            gitlet("commit", "version " + version);
+        }
+        Map<String, byte[]> before = objects();
+        gitlet("gc");
+        checkObjects(before, "first gc");
+        gitlet("gc");
+        checkObjects(before, "second gc");
+    }
+
+    /** Checks that find and find --contains still answer, and keep
+     *  answering as commits are added, after a crash cut the last record
+     *  of the message journal short. */
+    static void messagesHere() throws IOException {
+        gitlet("init");
+        for (String message : new String[] {"alpha one", "beta two"}) {
+            Utils.writeContents(Utils.join(Objects.CWD, "f.txt"), message);
+            gitlet("add", "f.txt");
+            gitlet("commit", message);
+        }
+        String beta = output("find", "beta two");
+        check(beta.matches("[0-9a-f]{40}\n"), "find before the crash");
+        for (int cut = 1; cut < 12; cut += 5) {
+            byte[] journal = Utils.readContents(MessageIndex.JOURNALFILE);
+            Utils.writeContents(MessageIndex.JOURNALFILE,
+                    Arrays.copyOf(journal, journal.length - cut));
+            check(output("find", "beta two").equals(beta),
+                    "find after cutting " + cut + " bytes");
+            check(output("find", "--contains", "one").equals(
+                    output("find", "alpha one")),
+                    "find --contains after cutting " + cut + " bytes");
+        }
+        byte[] journal = Utils.readContents(MessageIndex.JOURNALFILE);
+        Utils.writeContents(MessageIndex.JOURNALFILE,
+                Arrays.copyOf(journal, journal.length - 3));
+        Utils.writeContents(Utils.join(Objects.CWD, "f.txt"), "gamma");
+        gitlet("add", "f.txt");
+        gitlet("commit", "gamma three");
+        check(output("find", "gamma three").matches("[0-9a-f]{40}\n"),
+                "find of a commit made after the crash");
+        check(output("find", "beta two").equals(beta),
+                "find of a commit made before the crash");
+        check(output("find", "--contains", "a").split("\n").length == 4,
+                "find --contains of every commit, the initial one "
+                + "included, after the crash");
+    }
+
+    /** Checks that a journal left by a command that stopped after
+     *  syncing it is replayed by the next command, even over writes
+     *  already applied and over bytes past the end of an append, and
+     *  that one cut short is discarded. */
+    static void journalHere() throws IOException {
+        gitlet("init");
+        File file = Utils.join(Objects.CWD, "f.txt");
+        Utils.writeContents(file, "one");
+        gitlet("add", "f.txt");
+        gitlet("commit", "one");
+        Utils.writeContents(file, "two");
+        gitlet("add", "f.txt");
+        crash("commit", "two");
+        check(Journal.JOURNALFILE.isFile(), "journal left by a crash");
+        String two = output("find", "two");
+        check(two.equals(Utils.readContentsAsString(Objects.MASTER) + "\n"),
+                "commit replayed from the journal");
+        check(!Journal.JOURNALFILE.exists(), "journal deleted once replayed");
+        check(Staged.read(Objects.STAGEDFILE).getAdded().isEmpty(),
+                "staging area cleared by the replayed commit");
+
+        Utils.writeContents(file, "three");
+        gitlet("add", "f.txt");
+        crash("commit", "three");
+        byte[] journal = Utils.readContents(Journal.JOURNALFILE);
+        Utils.writeContents(Journal.JOURNALFILE,
+                Arrays.copyOf(journal, journal.length - 1));
+        gitlet("status");
+        check(!Journal.JOURNALFILE.exists(), "journal cut short deleted");
+        check(two.equals(Utils.readContentsAsString(Objects.MASTER) + "\n"),
+                "journal cut short not replayed");
+        check(Staged.read(Objects.STAGEDFILE).getAdded().containsKey("f.txt"),
+                "staging area kept when the journal is cut short");
+
+        Utils.writeContents(Utils.join(Objects.CWD, "g.txt"), "g");
+        crash("add", "g.txt");
+        journal = Utils.readContents(Journal.JOURNALFILE);
+        gitlet("status");
+        byte[] staged = Utils.readContents(Objects.STAGEDFILE);
+        Utils.writeContents(Objects.STAGEDFILE,
+                Arrays.copyOf(staged, staged.length + 7));
+        Utils.writeContents(Journal.JOURNALFILE, journal);
+        gitlet("status");
+        check(Arrays.equals(staged, Utils.readContents(Objects.STAGEDFILE)),
+                "append replayed again over a longer file");
+        check(Staged.read(Objects.STAGEDFILE).getAdded().keySet().equals(
+                Set.of("f.txt", "g.txt")), "both files staged after replay");
+    }
+
+    /** Checks that each change to the staging area is appended to its
+     *  log and replayed when it is read, that a long log is compacted
+     *  into a snapshot, and that a commit leaves a bare snapshot. */
+    static void stagingHere() throws IOException {
+        gitlet("init");
+        File tracked = Utils.join(Objects.CWD, "t.txt");
+        File a = Utils.join(Objects.CWD, "a.txt");
+        Utils.writeContents(tracked, "t");
+        gitlet("add", "t.txt");
+        gitlet("commit", "t");
+        byte[] snapshot = Utils.readContents(Objects.STAGEDFILE);
+        Utils.writeContents(a, "a");
+        Utils.writeContents(Utils.join(Objects.CWD, "b.txt"), "b");
+        String[][] commands = {{"add", "a.txt"}, {"add", "b.txt"},
+            {"rm", "t.txt"}, {"rm", "b.txt"}, {"add", "b.txt"},
+            {"rm", "b.txt"}};
+        for (String[] command : commands) {
+            byte[] before = Utils.readContents(Objects.STAGEDFILE);
+            gitlet(command);
+            byte[] after = Utils.readContents(Objects.STAGEDFILE);
+            check(after.length > before.length && Arrays.equals(before,
+                    Arrays.copyOf(after, before.length)),
+                    String.join(" ", command) + " appends to the log");
+        }
+        Utils.writeContents(tracked, "t");
+        gitlet("add", "t.txt");
+        Staged staged = Staged.read(Objects.STAGEDFILE);
+        check(staged.getAdded().equals(
+                Map.of("a.txt", Utils.sha1File("a.txt", a)))
+                && staged.getRemoved().isEmpty(), "log replayed");
+        check(Arrays.equals(snapshot, Arrays.copyOf(
+                Utils.readContents(Objects.STAGEDFILE), snapshot.length)),
+                "snapshot kept under the log");
+
+        int longest = 0;
+        boolean compacted = false;
+        for (int i = 0; i <= Staged.MIN_LOG; i += 1) {
+            Utils.writeContents(a, "a" + i);
+            gitlet("add", "a.txt");
+            int length = (int) Objects.STAGEDFILE.length();
+            compacted |= length < longest;
+            longest = Math.max(longest, length);
+        }
+        check(compacted, "long log compacted");
+        check(Staged.read(Objects.STAGEDFILE).getAdded().equals(
+                Map.of("a.txt", Utils.sha1File("a.txt", a))),
+                "staging area read after compaction");
+        gitlet("commit", "a");
+        check(Arrays.equals(new Staged().encode(),
+                Utils.readContents(Objects.STAGEDFILE)),
+                "commit leaves a bare snapshot");
+    }
+
+    /** Writes a repository as the baseline version left it, with two
+     *  commits and a file staged, all Java-serialized, and checks that
+     *  Gitlet reads it, keeps its commit IDs, and moves it to the
+     *  current formats on the first command that writes. */
+    static void baselineHere() throws IOException {
+        for (File dir : new File[] {Objects.COMMIT, Objects.STAGING_DIR,
+            Objects.BLOBS, Objects.STAGING_AREA, Objects.BRANCHES}) {
+            dir.mkdirs();
+        }
+        LinkedHashMap<String, String> blobs = new LinkedHashMap<>();
+        BaselineCommit initial = new BaselineCommit("initial commit", null,
+                "Wed Dec 31 16:00:00 1969 -0800", blobs);
+        blobs.put("f.txt", baselineBlob("f.txt", "one"));
+        BaselineCommit one = new BaselineCommit("one", initial.sha1Commit,
+                "Thu Nov 9 20:00:05 2017 -0800", blobs);
+        BaselineLinkedHM commits = new BaselineLinkedHM();
+        commits.linkedCommit.put(initial.sha1Commit, initial);
+        commits.linkedCommit.put(one.sha1Commit, one);
+        BaselineStaged staged = new BaselineStaged();
+        staged.addedFiles.put("g.txt", baselineBlob("g.txt", "g"));
+        Utils.writeContents(Objects.COMMITSMAP, baselineSerialize(commits));
+        Utils.writeContents(Objects.STAGEDFILE, baselineSerialize(staged));
+        Utils.writeContents(Objects.HEAD, "master");
+        Utils.writeContents(Objects.MASTER, one.sha1Commit);
+
+        String log = output("log");
+        check(log.contains("commit " + one.sha1Commit + "\n")
+                && log.contains("commit " + initial.sha1Commit + "\n")
+                && log.contains("Date: Thu Nov 9 20:00:05 2017 -0800\n"),
+                "log of a baseline repository");
+        check(output("find", "one").equals(one.sha1Commit + "\n"),
+                "baseline commit ID kept");
+        check(Staged.read(Objects.STAGEDFILE).getAdded().equals(
+                staged.addedFiles), "baseline staging area read");
+        Utils.join(Objects.CWD, "f.txt").delete();
+        gitlet("checkout", one.sha1Commit.substring(0, 8), "--", "f.txt");
+        check(Utils.readContentsAsString(Utils.join(Objects.CWD, "f.txt"))
+                .equals("one"), "file checked out of a baseline commit");
+
+        gitlet("commit", "two");
+        check(!Objects.COMMITSMAP.exists(), "baseline commits migrated");
+        check(output("find", "one").equals(one.sha1Commit + "\n"),
+                "baseline commit ID kept after migration");
+        Commit two = CommitStore.read(Utils.readContentsAsString(
+                Objects.MASTER));
+        check(two.getParent().equals(one.sha1Commit)
+                && two.getBlobs().keySet().equals(Set.of("f.txt", "g.txt")),
+                "commit on top of a baseline commit");
+        check(!Utils.isSerialized(Utils.readContents(Objects.STAGEDFILE)),
+                "staging area rewritten in the current format");
+    }
+
+    /** Stores a blob as the baseline version did.
+     *  @param name The name of the file.
+     *  @param contents Its contents, which are also written to it.
+     *  @return The blob's SHA-1 ID. */
+    static String baselineBlob(String name, String contents) {
+        String sha = Utils.sha1(name, contents);
+        Utils.writeContents(Utils.join(Objects.CWD, name), contents);
+        Utils.writeContents(Utils.join(Objects.BLOBS, sha), contents);
+        return sha;
+    }
+
+    /** Serializes OBJ as the baseline version would have serialized the
+     *  baseline class it stands in for. */
+    static byte[] baselineSerialize(Serializable obj) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new BaselineOutputStream(bytes)) {
+            out.writeObject(obj);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** An ObjectOutputStream that writes the stand-ins for baseline
+     *  classes under the names of the classes they stand in for. */
+    private static class BaselineOutputStream extends ObjectOutputStream {
+
+        /** Names of the baseline classes, by stand-in class name. */
+        static final Map<String, String> NAMES = Map.of(
+                BaselineCommit.class.getName(), "gitlet.Commit",
+                BaselineLinkedHM.class.getName(), "gitlet.LinkedHM",
+                BaselineStaged.class.getName(), "gitlet.Staged");
+
+        /** A stream writing to OUT. */
+        BaselineOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        /** Writes DESC as its baseline class would be described, the way
+         *  ObjectStreamClass describes a class with no writeObject. */
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc)
+                throws IOException {
+            String name = NAMES.get(desc.getName());
+            if (name == null) {
+                super.writeClassDescriptor(desc);
+                return;
+            }
+            writeUTF(name);
+            writeLong(desc.getSerialVersionUID());
+            writeByte(ObjectStreamConstants.SC_SERIALIZABLE);
+            writeShort(desc.getFields().length);
+            for (ObjectStreamField field : desc.getFields()) {
+                writeByte(field.getTypeCode());
+                writeUTF(field.getName());
+                if (!field.isPrimitive()) {
+                    String type = field.getTypeString();
+                    for (Map.Entry<String, String> standIn
+                            : NAMES.entrySet()) {
+                        type = type.replace(
+                                standIn.getKey().replace('.', '/'),
+                                standIn.getValue().replace('.', '/'));
+                    }
+                    writeObject(type);
+                }
+            }
+        }
+    }
+
+    /** The fields of the baseline Commit. */
+    private static class BaselineCommit implements Serializable {
+
+        /** A commit holding BLOBS, its ID computed as the baseline
+         *  computed it, from its serialized form before it had an ID. */
+        BaselineCommit(String message, String parent, String timestamp,
+                       LinkedHashMap<String, String> blobs) {
+            this.message = message;
+            this.parent = parent;
+            this.timestamp = timestamp;
+            this.addedBlobs = new LinkedHashMap<>(blobs);
+            this.sha1Commit = Utils.sha1((Object) baselineSerialize(this));
+        }
+
+        /** The commit message. */
+        private String message;
+        /** The commit time, formatted as by TIME. */
+        private String timestamp;
+        /** The parent's ID. */
+        private String parent;
+        /** The baseline's date format. */
+        private SimpleDateFormat time =
+                new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+        /** The commit's ID. */
+        private String sha1Commit;
+        /** Blob IDs by file name. */
+        private LinkedHashMap<String, String> addedBlobs;
+
+        /** The baseline Commit's ID. */
+        private static final long serialVersionUID = -1297982123901273855L;
+    }
+
+    /** The fields of the baseline LinkedHM. */
+    private static class BaselineLinkedHM implements Serializable {
+        /** Commits by ID. */
+        private LinkedHashMap<String, BaselineCommit> linkedCommit =
+                new LinkedHashMap<>();
+        /** Unused. */
+        private String fileName;
+        /** Unused. */
+        private String sha1;
+        /** Unused. */
+        private BaselineCommit commit;
+
+        /** The baseline LinkedHM's ID. */
+        private static final long serialVersionUID = 8824821879300271515L;
+    }
+
+    /** The fields of the baseline Staged. */
+    private static class BaselineStaged implements Serializable {
+        /** Blob IDs of the files staged for addition, by name. */
+        private LinkedHashMap<String, String> addedFiles =
+                new LinkedHashMap<>();
+        /** Files staged for removal. */
+        private ArrayList<String> removedFiles = new ArrayList<>();
+
+        /** The baseline Staged's ID. */
+        private static final long serialVersionUID = -2851316605180392307L;
+    }
+
+    /** Builds a history with branches, merges, a criss-cross merge and
+     *  a conflict, and checks the files each merge writes, the split
+     *  point of every pair of commits, and the expansion of abbreviated
+     *  commit IDs, both through the commit index and past its end. */
+    static void historyHere() throws IOException {
+        gitlet("init");
+        for (int i = 0; i < 20; i += 1) {
+            commitFile("m.txt", "m" + i);
+        }
+        checkPrefixes("with every commit indexed");
+        gitlet("branch", "a");
+        gitlet("branch", "b");
+        commitFile("m.txt", "m20");
+        gitlet("checkout", "a");
+        commitFile("a.txt", "a1");
+        commitFile("a.txt", "a2");
+        gitlet("checkout", "b");
+        commitFile("b.txt", "b1");
+        gitlet("checkout", "master");
+        gitlet("merge", "a");
+        checkFiles("merge of a", "m.txt", "m20", "a.txt", "a2");
+        check(CommitStore.read(branch("master")).getSecondParent()
+                .equals(branch("a")), "merge commit's second parent");
+
+        gitlet("branch", "p");
+        gitlet("checkout", "b");
+        gitlet("branch", "q");
+        gitlet("checkout", "master");
+        gitlet("merge", "b");
+        checkFiles("merge of b", "m.txt", "m20", "a.txt", "a2",
+                "b.txt", "b1");
+        gitlet("checkout", "q");
+        gitlet("merge", "p");
+        checkFiles("criss-cross merge", "m.txt", "m20", "a.txt", "a2",
+                "b.txt", "b1");
+        CommitGraph.reload();
+        CommitGraph graph = CommitGraph.get();
+        String split = graph.id(graph.splitPoint(
+                graph.position(branch("master")),
+                graph.position(branch("q"))));
+        check(split.equals(branch("p")) || split.equals(branch("b")),
+                "split point of a criss-cross merge");
+
+        gitlet("checkout", "master");
+        commitFile("c.txt", "ours\n");
+        gitlet("checkout", "a");
+        commitFile("c.txt", "theirs\n");
+        gitlet("checkout", "master");
+        check(output("merge", "a").equals("Encountered a merge conflict.\n"),
+                "merge conflict reported");
+        checkFiles("merge conflict", "m.txt", "m20", "a.txt", "a2",
+                "c.txt", "<<<<<<< HEAD\nours\n=======\ntheirs\n>>>>>>>\n");
+        checkPrefixes("with commits past the end of the index");
+        checkSplitPoints();
+    }
+
+    /** Writes CONTENTS to the file NAME, adds it and commits it with
+     *  CONTENTS as the message. */
+    static void commitFile(String name, String contents) throws IOException {
+        Utils.writeContents(Utils.join(Objects.CWD, name), contents);
+        gitlet("add", name);
+        gitlet("commit", contents);
+    }
+
+    /** Returns the commit ID at the head of branch NAME. */
+    static String branch(String name) {
+        return Utils.readContentsAsString(Utils.join(Objects.BRANCHES, name));
+    }
+
+    /** Checks, after the step named WHEN, that the working directory
+     *  holds the files named by the even elements of NAMESANDCONTENTS,
+     *  each with the contents that follow its name. */
+    static void checkFiles(String when, String... namesAndContents) {
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            File file = Utils.join(Objects.CWD, namesAndContents[i]);
+            check(file.isFile() && Utils.readContentsAsString(file)
+                    .equals(namesAndContents[i + 1]),
+                    namesAndContents[i] + " after " + when);
+        }
+    }
+
+    /** Checks that every one-digit and two-digit prefix, and the first
+     *  five digits and the whole of every commit ID, expand through the
+     *  commit graph to the IDs that start with them, and that
+     *  CommitStore.resolve rejects those that are ambiguous, in the
+     *  state named WHEN. */
+    static void checkPrefixes(String when) {
+        CommitGraph.reload();
+        CommitGraph graph = CommitGraph.get();
+        List<String> ids = CommitStore.ids();
+        check(graph.size() == ids.size(), "commit graph size " + when);
+        TreeSet<String> prefixes = new TreeSet<>();
+        for (int i = 0; i < 256; i += 1) {
+            prefixes.add(String.format("%02x", i));
+            prefixes.add(String.format("%x", i >> 4));
+        }
+        for (String id : ids) {
+            prefixes.add(id);
+            prefixes.add(id.substring(0, 5));
+        }
+        prefixes.add("g");
+        for (String prefix : prefixes) {
+            ArrayList<String> expected = new ArrayList<>();
+            for (String id : ids) {
+                if (id.startsWith(prefix)) {
+                    expected.add(id);
+                }
+            }
+            List<String> found = new ArrayList<>(
+                    graph.ids(prefix, Integer.MAX_VALUE));
+            Collections.sort(found);
+            check(found.equals(expected),
+                    "IDs starting with " + prefix + " " + when);
+            String resolved;
+            try {
+                resolved = CommitStore.resolve(prefix);
+            } catch (GitletException excp) {
+                resolved = excp.getMessage();
+            }
+            check(resolved == null ? expected.isEmpty()
+                    : expected.size() > 1
+                    ? resolved.equals("Commit ID " + prefix + " is ambiguous.")
+                    : resolved.equals(expected.get(0)),
+                    "resolve " + prefix + " " + when);
+        }
+    }
+
+    /** Checks that the split point the commit graph finds for every pair
+     *  of commits is a common ancestor of both that is not an ancestor
+     *  of any other common ancestor, working from the commits' parents
+     *  as stored. */
+    static void checkSplitPoints() {
+        CommitGraph.reload();
+        CommitGraph graph = CommitGraph.get();
+        HashMap<String, Set<String>> ancestors = new HashMap<>();
+        List<String> ids = CommitStore.ids();
+        for (String a : ids) {
+            for (String b : ids) {
+                Set<String> common = new HashSet<>(ancestors(a, ancestors));
+                common.retainAll(ancestors(b, ancestors));
+                String split = graph.id(graph.splitPoint(
+                        graph.position(a), graph.position(b)));
+                boolean latest = common.contains(split);
+                for (String other : common) {
+                    latest &= other.equals(split)
+                            || !ancestors(other, ancestors).contains(split);
+                }
+                check(latest, "split point of " + a + " and " + b);
+            }
+        }
+    }
+
+    /** Returns commit ID and the IDs of all its ancestors, memoized in
+     *  MEMO. */
+    static Set<String> ancestors(String id, Map<String, Set<String>> memo) {
+        Set<String> result = memo.get(id);
+        if (result == null) {
+            result = new HashSet<>();
+            result.add(id);
+            Commit commit = CommitStore.read(id);
+            for (String parent : new String[] {commit.getParent(),
+                commit.getSecondParent()}) {
+                if (parent != null) {
+                    result.addAll(ancestors(parent, memo));
+                }
+            }
+            memo.put(id, result);
+        }
+        return result;
+    }
+
+    /** Runs Gitlet with ARGS in this JVM up to the point where its
+     *  journal is synced, and stops there as if the process died. */
+    static void crash(String... args) throws IOException {
+        Main.dispatch(args);
+        check(Journal.log(), args[0] + " journals its writes");
+        Journal.abort();
+    }
+
+    /** Runs Gitlet with ARGS in this JVM. */
+    static void gitlet(String... args) throws IOException {
+        Main.execute(args);
+    }
+
+    /** Runs Gitlet with ARGS in this JVM.
+     *  @return What it printed to standard output. */
+    static String output(String... args) throws IOException {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true,
+                StandardCharsets.UTF_8));
+        Utils.setStdout(captured);
+        try {
+            Main.execute(args);
+        } finally {
+            System.setOut(stdout);
+            Utils.setStdout(null);
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the stored form of every commit and tree and the
+     *  contents of every blob, by ID. */
+    static Map<String, byte[]> objects() {
+        LinkedHashMap<String, byte[]> result = new LinkedHashMap<>();
+        for (String id : CommitStore.all()) {
+            result.put(id, CommitStore.readBytes(id));
+            Commit commit = CommitStore.read(id);
+            for (String tree : Tree.reachable(commit.getTree())) {
+                result.put(tree, Tree.readBytes(tree));
+            }
+            for (String blob : commit.getBlobs().values()) {
+                result.put(blob, BlobStore.readContents(blob));
+            }
+        }
+        return result;
+    }
+
+    /** Checks that the objects read now, and the sizes recorded for
+     *  packed objects, match BEFORE, after the step named WHEN. */
+    static void checkObjects(Map<String, byte[]> before, String when) {
+        check(Pack.all().size() == 1, "one pack after " + when);
+        Map<String, byte[]> after = objects();
+        check(after.keySet().equals(before.keySet()),
+                "same objects after " + when);
+        for (Map.Entry<String, byte[]> object : before.entrySet()) {
+            check(Arrays.equals(object.getValue(),
+                    after.get(object.getKey())),
+                    object.getKey() + " reads back after " + when);
+            if (Pack.contains(object.getKey())) {
+                check(Pack.size(object.getKey())
+                        == object.getValue().length,
+                        object.getKey() + " size after " + when);
+            }
+        }
+    }
+
+    /** Exits with status 1, naming TEST, unless OK. */
+    static void check(boolean ok, String test) {
+        if (!ok) {
+            System.err.println("FAILED: " + test);
+            System.exit(1);
+        }
+    }
+}
@@ -3,22 +3,38 @@ package gitlet;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Collections;
 import java.util.List;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.FilenameFilter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
 
 
 
@@ -32,25 +48,32 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** The length of a SHA-1 UID in bytes, as written by writeId. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Stats.start();
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long length = 0;
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    length += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] bytes = ((String) val).getBytes(
+                            StandardCharsets.UTF_8);
+                    md.update(bytes);
+                    length += bytes.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            String sha = hex(md);
+            Stats.record(Stats.SHA1, length, start);
+            return sha;
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -62,6 +85,61 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the buffer used to stream file contents. */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Returns the SHA-1 hash of the concatenation of PREFIX and the
+     *  contents of FILE, reading FILE in CHUNK_SIZE pieces so that memory
+     *  use does not depend on its size.  Gives the same result as
+     *  sha1(PREFIX, readContents(FILE)).  Throws IllegalArgumentException
+     *  in case of problems. */
+    static String sha1File(String prefix, File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        long start = Stats.start();
+        MessageDigest md = sha1Digest();
+        md.update(prefix.getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+                length += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String sha = hex(md);
+        Stats.record(Stats.HASH, length, start);
+        return sha;
+    }
+
+    /** Returns a new SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the digest of MD as a hexadecimal numeral. */
+    static String hex(MessageDigest md) {
+        return hex(md.digest());
+    }
+
+    /** Returns BYTES as a hexadecimal numeral. */
+    static String hex(byte[] bytes) {
+        char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >>> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -87,17 +165,45 @@ class Utils {
         return restrictedDelete(new File(file));
     }
 
+    /** Deletes the file at PATH, relative to the directory ROOT and
+     *  separated by '/', if it exists and is not a directory, and then
+     *  removes the directories between it and ROOT that it leaves empty.
+     *  Returns true if the file was deleted.  Refuses to delete anything
+     *  and throws IllegalArgumentException unless ROOT contains a
+     *  directory named .gitlet. */
+    static boolean restrictedDelete(File root, String path) {
+        if (!(new File(root, ".gitlet")).isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = join(root, path.split("/"));
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        File dir = file.getParentFile();
+        while (!dir.equals(root) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+        return true;
+    }
+
     /* READING AND WRITING FILE CONTENTS */
 
     /** Return the entire contents of FILE as a byte array.  FILE must
      *  be a normal file.  Throws IllegalArgumentException
      *  in case of problems. */
     static byte[] readContents(File file) {
+        byte[] pending = Journal.pending(file);
+        if (pending != null) {
+            return pending;
+        }
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        long start = Stats.start();
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] contents = Files.readAllBytes(file.toPath());
+            Stats.record(Stats.READ, contents.length, start);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -140,30 +246,74 @@ class Utils {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
             }
+            long start = Stats.start();
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            long length = 0;
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                        : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                length += bytes.length;
             }
             str.close();
+            Stats.record(Stats.WRITE, length, start);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Write CONTENTS to FILE, which must be inside .gitlet, by writing
+     *  a temporary file in .gitlet and renaming that over FILE, so that
+     *  readers see either the old or the new contents and never part of
+     *  them, and no directory that is listed ever holds a partly written
+     *  file.  The data is not synced; see fsync.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeAtomic(File file, byte[] contents) {
+        long start = Stats.start();
+        File temp = null;
+        try {
+            temp = File.createTempFile("write", ".tmp", Objects.GITLET);
+            Files.write(temp.toPath(), contents);
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Stats.record(Stats.WRITE, contents.length, start);
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces the contents of FILE, or the entries of the directory
+     *  FILE, to the storage device.  Directories that cannot be opened
+     *  for syncing on this platform are skipped.  Throws
+     *  IllegalArgumentException if a file cannot be synced. */
+    static void fsync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        long start = Stats.start();
         try {
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(new BufferedInputStream(
+                        new FileInputStream(file), CHUNK_SIZE));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Stats.record(Stats.DESERIALIZE, file.length(), start);
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -193,7 +343,7 @@ class Utils {
 
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeAtomic(file, serialize(obj));
     }
 
     /* DIRECTORIES */
@@ -227,6 +377,34 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the paths, relative to DIR and separated by '/', of all
+     *  plain files under the directory DIR and its subdirectories, in
+     *  lexicographic order.  Directories named .gitlet are skipped. */
+    static List<String> plainFilenamesUnder(File dir) {
+        ArrayList<String> result = new ArrayList<>();
+        plainFilenamesUnder(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Adds to RESULT the paths of the plain files under DIR, each
+     *  preceded by PREFIX. */
+    private static void plainFilenamesUnder(File dir, String prefix,
+                                            List<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File file = new File(dir, name);
+            if (file.isFile()) {
+                result.add(prefix + name);
+            } else if (file.isDirectory() && !name.equals(".gitlet")) {
+                plainFilenamesUnder(file, prefix + name + "/", result);
+            }
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -259,6 +437,140 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        long start = Stats.start();
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            T result = expectedClass.cast(in.readObject());
+            Stats.record(Stats.DESERIALIZE, bytes.length, start);
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* BINARY ENCODING */
+
+    /** Returns true if BYTES hold a Java-serialized object rather than
+     *  one of Gitlet's own encodings. */
+    static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xff) == 0xAC
+                && (bytes[1] & 0xff) == 0xED;
+    }
+
+    /** Returns a stream reading BYTES just past HEADER.  Throws
+     *  IllegalArgumentException unless BYTES start with HEADER. */
+    static DataInputStream decoder(byte[] bytes, byte[] header) {
+        if (bytes.length < header.length || !Arrays.equals(header,
+                Arrays.copyOf(bytes, header.length))) {
+            throw new IllegalArgumentException("unknown object encoding");
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes,
+                header.length, bytes.length - header.length));
+    }
+
+    /** Writes the non-negative VALUE to OUT in 7-bit groups, low group
+     *  first, with the high bit of each byte set if more follow. */
+    static void writeVarint(DataOutputStream out, int value)
+            throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /** Reads a value written by writeVarint from IN. */
+    static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /** Writes STR, which may be null, to OUT as a varint of its UTF-8
+     *  length plus one (0 for null) followed by its UTF-8 bytes. */
+    static void writeString(DataOutputStream out, String str)
+            throws IOException {
+        if (str == null) {
+            writeVarint(out, 0);
+        } else {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length + 1);
+            out.write(bytes);
+        }
+    }
+
+    /** Reads a String written by writeString from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        int length = readVarint(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the hexadecimal SHA-1 ID SHA as its ID_BYTES bytes. */
+    static byte[] idBytes(String sha) {
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i < id.length; i += 1) {
+            id[i] = (byte) (Character.digit(sha.charAt(2 * i), 16) << 4
+                    | Character.digit(sha.charAt(2 * i + 1), 16));
+        }
+        return id;
+    }
+
+    /** Writes the hexadecimal SHA-1 ID SHA to OUT as its ID_BYTES
+     *  bytes. */
+    static void writeId(DataOutputStream out, String sha)
+            throws IOException {
+        out.write(idBytes(sha));
+    }
+
+    /** Reads an ID written by writeId from IN. */
+    static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[ID_BYTES];
+        in.readFully(id);
+        return hex(id);
+    }
+
+    /** The hexadecimal digits, by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Writes MAP, whose values are SHA-1 IDs, to OUT as a varint count
+     *  followed by each key and value, in iteration order. */
+    static void writeMap(DataOutputStream out, Map<String, String> map)
+            throws IOException {
+        writeVarint(out, map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeId(out, entry.getValue());
+        }
+    }
+
+    /** Reads the entries of a map written by writeMap from IN into MAP,
+     *  returning MAP. */
+    static <M extends Map<String, String>> M readMap(DataInputStream in,
+                                                     M map)
+            throws IOException {
+        for (int i = readVarint(in); i > 0; i -= 1) {
+            String key = readString(in);
+            map.put(key, readId(in));
+        }
+        return map;
+    }
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as
@@ -267,6 +579,28 @@ class Utils {
         return new GitletException(String.format(msg, args));
     }
 
+    /** Returns a buffered Writer on standard output.  Unlike System.out,
+     *  it throws IOException once the output is closed, as when it is
+     *  piped to head, so long listings can stop early.  Flush it when
+     *  done; closing it would close standard output. */
+    static Writer stdout() {
+        System.out.flush();
+        OutputStream out = stdoutTarget != null ? stdoutTarget
+                : new FileOutputStream(FileDescriptor.out);
+        return new BufferedWriter(new OutputStreamWriter(out,
+                StandardCharsets.UTF_8), CHUNK_SIZE);
+    }
+
+    /** Sends what is written to stdout() to OUT instead of to the
+     *  process's standard output, or back there if OUT is null. */
+    static void setStdout(OutputStream out) {
+        stdoutTarget = out;
+    }
+
+    /** Where stdout() writes, or null for the process's standard
+     *  output. */
+    private static OutputStream stdoutTarget;
+
     /** Print a message composed from MSG and ARGS as for the String.format
      *  method, followed by a newline. */
     static void message(String msg, Object... args) {